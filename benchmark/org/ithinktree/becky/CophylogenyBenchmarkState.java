@@ -0,0 +1,94 @@
+/**
+ * CophylogenyBenchmarkState.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import org.ithinktree.becky.tools.WorkloadGenerator;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dr.evolution.tree.BranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MersenneTwisterFast;
+
+/**
+ * A host tree, a symbiont tree coevolved along it and the likelihood of its true mapping, shared by the benchmarks.
+ * <p/>
+ * The trees are the balanced workload of WorkloadGenerator with about the given number of host tips, from a
+ * fixed seed, so every run and every revision benchmarks the same trees. The host nodes and heights that the
+ * benchmarks query are drawn beforehand from another fixed seed.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@State(Scope.Benchmark)
+public class CophylogenyBenchmarkState {
+
+	public static final long SEED = 666;
+	public static final int QUERY_COUNT = 1024; // A power of two
+
+	@Param({"10", "100", "1000", "10000"})
+	public int tips;
+
+	public Tree hostTree;
+	/** A copy of the host tree, which the model has no index or cached extinction probabilities for */
+	public Tree unindexedHostTree;
+	public TreeModel symbiontTree;
+	public SimpleCophylogenyModel cophylogenyModel;
+	public CophylogenyLikelihood cophylogenyLikelihood;
+	public BranchRates branchRates;
+
+	public NodeRef[] hostQueries;
+	public NodeRef[] relationQueries;
+	public double[] heightQueries;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		final WorkloadGenerator.Workload workload = new WorkloadGenerator().generate(tips, WorkloadGenerator.Regime.BALANCED, SEED + tips);
+		hostTree = workload.hostTree;
+		unindexedHostTree = new SimpleTree(hostTree);
+
+		cophylogenyModel = WorkloadGenerator.createModel(workload.regime);
+		final Tree simulatedTree = workload.symbiontTree;
+		symbiontTree = new TreeModel(simulatedTree);
+		branchRates = new ConstantBranchRates();
+
+		final double rootHeight = Math.max(hostTree.getNodeHeight(hostTree.getRoot()), symbiontTree.getNodeHeight(symbiontTree.getRoot()));
+		cophylogenyLikelihood = new CophylogenyLikelihood(hostTree, symbiontTree, cophylogenyModel, branchRates, new Parameter.Default(1.1 * rootHeight), "host", "cophylogenyLikelihood");
+		for (int i = 0; i < symbiontTree.getNodeCount(); ++i) {
+			final Integer host = (Integer) simulatedTree.getNodeAttribute(simulatedTree.getNode(i), WorkloadGenerator.HOST_NODE_REF);
+			cophylogenyLikelihood.setStatesForNode(symbiontTree.getNode(i), hostTree.getNode(host));
+		}
+		cophylogenyLikelihood.getLogLikelihood();
+
+		final MersenneTwisterFast random = new MersenneTwisterFast(SEED);
+		hostQueries = new NodeRef[QUERY_COUNT];
+		relationQueries = new NodeRef[QUERY_COUNT];
+		heightQueries = new double[QUERY_COUNT];
+		final double hostRootHeight = hostTree.getNodeHeight(hostTree.getRoot());
+		for (int i = 0; i < QUERY_COUNT; ++i) {
+			hostQueries[i] = hostTree.getNode(random.nextInt(hostTree.getNodeCount()));
+			relationQueries[i] = hostTree.getNode(random.nextInt(hostTree.getNodeCount()));
+			heightQueries[i] = random.nextDouble() * hostRootHeight;
+		}
+
+	}
+
+	private static final class ConstantBranchRates implements BranchRates {
+		public double getBranchRate(final Tree tree, final NodeRef node) {
+			return 1.0;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * CophylogenyLikelihoodBenchmark.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dr.evolution.tree.NodeRef;
+
+/**
+ * Evaluation of the whole likelihood, from scratch and after the host of a single node changes,
+ * which is what most proposals cost.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CophylogenyLikelihoodBenchmark {
+
+	private int next = 0;
+
+	@Benchmark
+	public double getLogLikelihood(final CophylogenyBenchmarkState state) {
+		state.cophylogenyLikelihood.makeDirty();
+		return state.cophylogenyLikelihood.getLogLikelihood();
+	}
+
+	@Benchmark
+	public double getLogLikelihoodAfterHostChange(final CophylogenyBenchmarkState state) {
+		final NodeRef node = state.symbiontTree.getInternalNode(next++ % state.symbiontTree.getInternalNodeCount());
+		// Setting the same host flags the node and its ancestors without changing the likelihood
+		state.cophylogenyLikelihood.setStatesForNode(node, state.cophylogenyLikelihood.getStatesForNode(node));
+		return state.cophylogenyLikelihood.getLogLikelihood();
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ * CophylogenyModelUtilsBenchmark.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ithinktree.becky.CophylogenyModel.Utils.NodalRelationship;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Host tree queries, both walking the tree as the utilities do and through the model,
+ * which answers them from the host tree index.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CophylogenyModelUtilsBenchmark {
+
+	private int next = 0;
+
+	@Benchmark
+	public NodalRelationship determineRelationship(final CophylogenyBenchmarkState state) {
+		final int i = next++ & (CophylogenyBenchmarkState.QUERY_COUNT - 1);
+		return CophylogenyModel.Utils.determineRelationship(state.hostTree, state.hostQueries[i], state.relationQueries[i]);
+	}
+
+	@Benchmark
+	public NodalRelationship determineRelationshipIndexed(final CophylogenyBenchmarkState state) {
+		final int i = next++ & (CophylogenyBenchmarkState.QUERY_COUNT - 1);
+		return state.cophylogenyModel.determineRelationship(state.hostTree, state.hostQueries[i], state.relationQueries[i]);
+	}
+
+	@Benchmark
+	public int getContemporaneousLineageCount(final CophylogenyBenchmarkState state) {
+		return CophylogenyModel.Utils.getContemporaneousLineageCount(state.hostTree, state.heightQueries[next++ & (CophylogenyBenchmarkState.QUERY_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public int getContemporaneousLineageCountIndexed(final CophylogenyBenchmarkState state) {
+		return state.cophylogenyModel.getContemporaneousLineageCount(state.hostTree, state.heightQueries[next++ & (CophylogenyBenchmarkState.QUERY_COUNT - 1)]);
+	}
+
+}
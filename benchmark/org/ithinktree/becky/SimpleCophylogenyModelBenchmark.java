@@ -0,0 +1,61 @@
+/**
+ * SimpleCophylogenyModelBenchmark.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+/**
+ * The terms of the likelihood: each symbiont node's term under its true mapping, and the likelihood
+ * that a symbiont is lost within the whole host tree, on a copy of the tree so that nothing is cached.
+ * <p/>
+ * The node terms should not allocate once the host tree is indexed, which SimpleCophylogenyModelAllocationTest
+ * checks and the gc profiler (-prof gc) shows as a normalised allocation rate of about zero bytes per operation.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleCophylogenyModelBenchmark {
+
+	private int next = 0;
+
+	@Benchmark
+	public double calculateNodeLogLikelihood(final CophylogenyBenchmarkState state) {
+		final Tree symbiontTree = state.symbiontTree;
+		final NodeRef node = symbiontTree.getInternalNode(next++ % symbiontTree.getInternalNodeCount());
+		final NodeRef child1 = symbiontTree.getChild(node, 0);
+		final NodeRef child2 = symbiontTree.getChild(node, 1);
+		final CophylogenyLikelihood cophylogenyLikelihood = state.cophylogenyLikelihood;
+		return state.cophylogenyModel.calculateNodeLogLikelihood(state.symbiontTree, node, child1, child2, state.hostTree,
+				cophylogenyLikelihood.getStatesForNode(node), cophylogenyLikelihood.getStatesForNode(child1), cophylogenyLikelihood.getStatesForNode(child2), state.branchRates);
+	}
+
+	@Benchmark
+	public double likelihoodLineageLoss(final CophylogenyBenchmarkState state) {
+		final Tree hostTree = state.unindexedHostTree;
+		return state.cophylogenyModel.likelihoodLineageLoss(hostTree, hostTree.getRoot(), 1.0, false);
+	}
+
+}
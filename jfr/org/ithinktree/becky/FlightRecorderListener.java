@@ -0,0 +1,171 @@
+/**
+ * FlightRecorderListener.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Commits each profiling event as a Flight Recorder event, so that a recording shows the phases of the model
+ * alongside the samples and allocations in them. Set it with
+ * -Dbecky.eventListener=org.ithinktree.becky.FlightRecorderListener and record as usual, for example with
+ * -XX:StartFlightRecording=filename=becky.jfr. The events are under BECKY in Mission Control, and each can be
+ * disabled in the recording settings like any other.
+ * <p/>
+ * The durations are measured by the model, so they are fields of the events rather than their own durations.
+ * Only likelihood evaluations and simulations record a stack trace, as mapping cases are far too frequent.
+ *
+ * @see ProfilingEvents
+ * @author Arman D. Bilge
+ *
+ */
+public class FlightRecorderListener implements ProfilingEvents.Listener {
+
+	@Name("org.ithinktree.becky.LikelihoodEvaluation")
+	@Label("Likelihood Evaluation")
+	@Category({"BECKY", "Likelihood"})
+	@Description("An evaluation of a cophylogeny likelihood")
+	public static class LikelihoodEvaluation extends Event {
+		@Label("Likelihood")
+		public String likelihoodId;
+		@Label("Nodes Recalculated")
+		@Description("Internal symbiont nodes whose terms were recalculated")
+		public int nodesRecalculated;
+		@Label("Node Count")
+		@Description("Internal symbiont nodes")
+		public int nodeCount;
+		@Label("Log Likelihood")
+		public double logLikelihood;
+		@Label("Evaluation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		public long durationNanos;
+	}
+
+	@Name("org.ithinktree.becky.MappingClassification")
+	@Label("Mapping Classification")
+	@Category({"BECKY", "Likelihood"})
+	@Description("The case of the model that the mapping of a symbiont node falls into")
+	@StackTrace(false)
+	public static class MappingClassification extends Event {
+		@Label("Symbiont Node")
+		public int symbiontNode;
+		@Label("Case")
+		public String mappingCase;
+	}
+
+	@Name("org.ithinktree.becky.NoDescendantsEstimate")
+	@Label("No Descendants Estimate")
+	@Category({"BECKY", "Monte Carlo"})
+	@Description("An estimate of the likelihood that a lineage leaves no descendants, which may take several loops")
+	public static class NoDescendantsEstimate extends Event {
+		@Label("Origin Host")
+		public int originHost;
+		@Label("Origin Height")
+		public double originHeight;
+		@Label("Iterations")
+		public int iterations;
+		@Label("Likelihood")
+		public double likelihood;
+		@Label("Estimation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		public long durationNanos;
+	}
+
+	@Name("org.ithinktree.becky.SurvivalSimulation")
+	@Label("Survival Simulation")
+	@Category({"BECKY", "Monte Carlo"})
+	@Description("One loop of survival simulations, on the thread that ran it")
+	@StackTrace(false)
+	public static class SurvivalSimulation extends Event {
+		@Label("Origin Host")
+		public int originHost;
+		@Label("Iterations")
+		public int iterations;
+		@Label("No Descendants")
+		@Description("Simulations that left no descendants")
+		public int noDescendantCount;
+		@Label("Simulation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		public long durationNanos;
+	}
+
+	@Name("org.ithinktree.becky.CoevolutionSimulation")
+	@Label("Coevolution Simulation")
+	@Category({"BECKY", "Simulation"})
+	@Description("A simulation of a symbiont tree along a host tree")
+	public static class CoevolutionSimulation extends Event {
+		@Label("Host Nodes")
+		public int hostNodeCount;
+		@Label("Symbiont Nodes")
+		public int symbiontNodeCount;
+		@Label("Extinct Symbionts")
+		public int extinctSymbiontCount;
+		@Label("Attempts")
+		@Description("Simulations until one left symbionts")
+		public int attempts;
+		@Label("Simulation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		public long durationNanos;
+	}
+
+	public void likelihoodEvaluated(final String likelihoodId, final int nodesRecalculated, final int nodeCount, final double logLikelihood, final long durationNanos) {
+		final LikelihoodEvaluation event = new LikelihoodEvaluation();
+		if (!event.isEnabled()) return;
+		event.likelihoodId = likelihoodId;
+		event.nodesRecalculated = nodesRecalculated;
+		event.nodeCount = nodeCount;
+		event.logLikelihood = logLikelihood;
+		event.durationNanos = durationNanos;
+		event.commit();
+	}
+
+	public void mappingClassified(final int symbiontNode, final EvaluationCounters.Counter mappingCase) {
+		final MappingClassification event = new MappingClassification();
+		if (!event.isEnabled()) return;
+		event.symbiontNode = symbiontNode;
+		event.mappingCase = mappingCase.getName();
+		event.commit();
+	}
+
+	public void noDescendantsEstimated(final int originHost, final double originHeight, final int iterations, final double likelihood, final long durationNanos) {
+		final NoDescendantsEstimate event = new NoDescendantsEstimate();
+		if (!event.isEnabled()) return;
+		event.originHost = originHost;
+		event.originHeight = originHeight;
+		event.iterations = iterations;
+		event.likelihood = likelihood;
+		event.durationNanos = durationNanos;
+		event.commit();
+	}
+
+	public void survivalSimulated(final int originHost, final int iterations, final int noDescendantCount, final long durationNanos) {
+		final SurvivalSimulation event = new SurvivalSimulation();
+		if (!event.isEnabled()) return;
+		event.originHost = originHost;
+		event.iterations = iterations;
+		event.noDescendantCount = noDescendantCount;
+		event.durationNanos = durationNanos;
+		event.commit();
+	}
+
+	public void coevolutionSimulated(final int hostNodeCount, final int symbiontNodeCount, final int extinctSymbiontCount, final int attempts, final long durationNanos) {
+		final CoevolutionSimulation event = new CoevolutionSimulation();
+		if (!event.isEnabled()) return;
+		event.hostNodeCount = hostNodeCount;
+		event.symbiontNodeCount = symbiontNodeCount;
+		event.extinctSymbiontCount = extinctSymbiontCount;
+		event.attempts = attempts;
+		event.durationNanos = durationNanos;
+		event.commit();
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ * AbstractAccountedOperator.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+
+/**
+ * An operator whose proposals are accounted for, so that its performance suggestion can report them.
+ * Subclasses only make the proposal.
+ *
+ * @see ProposalAccounting
+ * @author Arman D. Bilge
+ *
+ */
+public abstract class AbstractAccountedOperator extends SimpleMCMCOperator {
+
+	protected final ProposalAccounting accounting;
+
+	private final ProposalAccounting.Proposal proposal = new ProposalAccounting.Proposal() {
+		public double propose() throws OperatorFailedException {
+			return AbstractAccountedOperator.this.propose();
+		}
+	};
+
+	public AbstractAccountedOperator(final CophylogenyLikelihood cophylogenyLikelihood) {
+		accounting = new ProposalAccounting(cophylogenyLikelihood);
+	}
+
+	/**
+	 * @return the log Hastings ratio
+	 */
+	protected abstract double propose() throws OperatorFailedException;
+
+	@Override
+	public final double doOperation() throws OperatorFailedException {
+		return accounting.propose(proposal);
+	}
+
+	@Override
+	public void accept(final double deviation) {
+		super.accept(deviation);
+		accounting.accepted();
+	}
+
+	@Override
+	public void reject() {
+		super.reject();
+		accounting.rejected();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		accounting.reset();
+	}
+
+}
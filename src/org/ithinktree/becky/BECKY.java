@@ -14,11 +14,17 @@ import org.ithinktree.becky.xml.CophylogenyLikelihoodParser;
 import org.ithinktree.becky.xml.CophylogenySetupParser;
 import org.ithinktree.becky.xml.CospeciationOperatorParser;
 import org.ithinktree.becky.xml.CospeciationSimulatorParser;
+import org.ithinktree.becky.xml.DelayedAcceptanceOperatorParser;
+import org.ithinktree.becky.xml.EvaluationCountersParser;
+import org.ithinktree.becky.xml.GibbsHostOperatorParser;
+import org.ithinktree.becky.xml.HostMappingOperatorParser;
 import org.ithinktree.becky.xml.HostSwitchOperatorParser;
 import org.ithinktree.becky.xml.HostSwitchingWilsonBaldingParser;
 import org.ithinktree.becky.xml.NodeRefProviderParser;
 import org.ithinktree.becky.xml.PreAnnotatorParser;
+import org.ithinktree.becky.xml.ReconciliationInitializerParser;
 import org.ithinktree.becky.xml.SimpleCophylogenyModelParser;
+import org.ithinktree.becky.xml.SimpleDeterministicCophylogenyModelParser;
 import org.ithinktree.becky.xml.SimpleStochasticCophylogenyModelParser;
 import org.ithinktree.becky.xml.TipHostSwitchOperatorParser;
 import org.ithinktree.becky.xml.TugOperatorParser;
@@ -37,6 +43,7 @@ public class BECKY implements Plugin {
 		Set<XMLObjectParser> parsers = new HashSet<XMLObjectParser>();
 		parsers.add(new SimpleCophylogenyModelParser());
 		parsers.add(new SimpleStochasticCophylogenyModelParser());
+		parsers.add(new SimpleDeterministicCophylogenyModelParser());
 		parsers.add(new CophylogenyLikelihoodParser());
 		parsers.add(new HostSwitchOperatorParser());
 		parsers.add(new TipHostSwitchOperatorParser());
@@ -49,6 +56,11 @@ public class BECKY implements Plugin {
 		parsers.add(new PreAnnotatorParser());
 		parsers.add(new TugOperatorParser());
 		parsers.add(new HostSwitchingWilsonBaldingParser());
+		parsers.add(new GibbsHostOperatorParser());
+		parsers.add(new HostMappingOperatorParser());
+		parsers.add(new ReconciliationInitializerParser());
+		parsers.add(new DelayedAcceptanceOperatorParser());
+		parsers.add(new EvaluationCountersParser());
 		return parsers;
 	}
 
@@ -7,6 +7,8 @@
 
 package org.ithinktree.becky;
 
+import java.util.Arrays;
+
 import org.ithinktree.becky.xml.CophylogenyLikelihoodParser;
 
 import dr.evolution.tree.BranchRates;
@@ -17,6 +19,7 @@ import dr.evolution.tree.TreeTrait;
 import dr.evolution.tree.TreeTrait.DefaultBehavior;
 import dr.evolution.tree.TreeTraitProvider;
 import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
 import dr.inference.model.AbstractModelLikelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -41,6 +44,7 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 	final private CophylogenyModel cophylogenyModel;
 	final private BranchRates branchRates;
 	final private Parameter originHeight;
+	final private HostTreeIndex hostTreeIndex;
 	
 	final private TreeTraitProvider.Helper treeTraits = new Helper();
 		
@@ -59,6 +63,7 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		this.cophylogenyModel = cophylogenyModel;
 		this.branchRates = branchRates;
 		this.originHeight = originHeight;
+		hostTreeIndex = new HostTreeIndex(hostTree);
 		
 		if (symbiontTree instanceof Model) {
 			addModel((Model) symbiontTree);
@@ -78,7 +83,13 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		
 		reconstructedStates = new int[symbiontTree.getNodeCount()];
 		storedReconstructedStates = new int[reconstructedStates.length];
+		partialLogLikelihoods = new double[reconstructedStates.length];
+		storedPartialLogLikelihoods = new double[reconstructedStates.length];
+		updateNode = new boolean[reconstructedStates.length];
+		storedUpdateNode = new boolean[reconstructedStates.length];
+		Arrays.fill(updateNode, true);
 		cophylogenyModel.initialize(symbiontTree);
+		cophylogenyModel.setHostTreeIndex(hostTreeIndex);
 		
 		
 		treeTraits.addTrait(reconstructionTagName, new NodeRefTrait() {
@@ -104,9 +115,14 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		cophylogenyModel = null;
 		branchRates = null;
 		originHeight = null;
+		hostTreeIndex = null;
 		final int[] empty = new int[0];
 		reconstructedStates = empty;
 		storedReconstructedStates = empty;
+		partialLogLikelihoods = new double[0];
+		storedPartialLogLikelihoods = partialLogLikelihoods;
+		updateNode = new boolean[0];
+		storedUpdateNode = updateNode;
 	}
 
 	@Override
@@ -128,45 +144,163 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 	}
 
 	protected double calculateLogLikelihood() {
-		double logL = 0.0;
+		if (evaluationCounters == null && !ProfilingEvents.ENABLED) return calculateRootLogLikelihood();
+		final long start = System.nanoTime();
+		recalculatedNodeCount = 0;
+		final double logL = calculateRootLogLikelihood();
+		final long duration = System.nanoTime() - start;
+		if (evaluationCounters != null) {
+			evaluationCounters.add(EvaluationCounters.Counter.EVALUATION_NANOS, duration);
+			// Full if every internal node was recalculated
+			evaluationCounters.increment(recalculatedNodeCount == symbiontTree.getInternalNodeCount() ?
+					EvaluationCounters.Counter.FULL_EVALUATIONS : EvaluationCounters.Counter.PARTIAL_EVALUATIONS);
+		}
+		if (ProfilingEvents.ENABLED) ProfilingEvents.likelihoodEvaluated(getId(), recalculatedNodeCount, symbiontTree.getInternalNodeCount(), logL, duration);
+		return logL;
+	}
+	
+	private double calculateRootLogLikelihood() {
 		cophylogenyModel.updateVariables();
-		NodeRef self, child1, child2;
-		NodeRef selfHost, child1Host, child2Host;
-		self = symbiontTree.getRoot();
-		do {
-			self = Tree.Utils.postorderSuccessor(symbiontTree, self);
-			if (!symbiontTree.isExternal(self)) {
-				
-				child1 = symbiontTree.getChild(self, 0);
-				child2 = symbiontTree.getChild(self, 1);
-				
-				selfHost = getStatesForNode(self);
-				child1Host = getStatesForNode(child1);
-				child2Host = getStatesForNode(child2);
-				
-				logL += cophylogenyModel.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, selfHost, child1Host, child2Host, branchRates);
-			}
-		} while (!symbiontTree.isRoot(self) && logL != Double.NEGATIVE_INFINITY);
+		final NodeRef root = symbiontTree.getRoot();
+		double logL = calculateSubtreeLogLikelihood(root);
+		if (logL != Double.NEGATIVE_INFINITY) logL += cophylogenyModel.calculateOriginLogLikelihood(symbiontTree, originHeight.getValue(0), root, hostTree, hostTree.getRoot(), getStatesForNode(root), branchRates);
+		return logL;
+	}
+	
+	/**
+	 * Calculates the log likelihood of the subtree below (and including) a node.
+	 * Only nodes flagged for update are recalculated; every other subtree reuses its cached partial.
+	 * Since flags always propagate to the root, this visits just the changed nodes and their ancestors.
+	 * 
+	 * @param self root of the subtree
+	 * @return log likelihood of the subtree
+	 */
+	private double calculateSubtreeLogLikelihood(final NodeRef self) {
 		
-		if (logL != Double.NEGATIVE_INFINITY) logL += cophylogenyModel.calculateOriginLogLikelihood(symbiontTree, originHeight.getValue(0), self, hostTree, hostTree.getRoot(), getStatesForNode(self), branchRates);
-				
+		final int i = self.getNumber();
+		if (!updateNode[i]) return partialLogLikelihoods[i];
+		
+		double logL = 0.0;
+		if (!symbiontTree.isExternal(self)) {
+			
+			final NodeRef child1 = symbiontTree.getChild(self, 0);
+			final NodeRef child2 = symbiontTree.getChild(self, 1);
+			
+			// Leave this node flagged if we bail out early, so it is recalculated next time
+			logL += calculateSubtreeLogLikelihood(child1);
+			if (logL == Double.NEGATIVE_INFINITY) return logL;
+			logL += calculateSubtreeLogLikelihood(child2);
+			if (logL == Double.NEGATIVE_INFINITY) return logL;
+			
+			logL += calculateNodeLogLikelihood(self, child1, child2);
+		}
+		
+		partialLogLikelihoods[i] = logL;
+		updateNode[i] = false;
+		return logL;
+	}
+	
+	private double calculateNodeLogLikelihood(final NodeRef self, final NodeRef child1, final NodeRef child2) {
+		if (evaluationCounters == null) {
+			if (ProfilingEvents.ENABLED) ++recalculatedNodeCount;
+			return cophylogenyModel.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, getStatesForNode(self), getStatesForNode(child1), getStatesForNode(child2), branchRates);
+		}
+		final long start = System.nanoTime();
+		final double logL = cophylogenyModel.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, getStatesForNode(self), getStatesForNode(child1), getStatesForNode(child2), branchRates);
+		evaluationCounters.add(EvaluationCounters.Counter.NODE_NANOS, System.nanoTime() - start);
+		evaluationCounters.increment(EvaluationCounters.Counter.NODES_VISITED);
+		++recalculatedNodeCount;
 		return logL;
 	}
+	
+	/**
+	 * Calculates the log likelihood as if an internal node were mapped to another host.
+	 * The node's host enters only its own term and that of its parent, but the events reconstructed at
+	 * the parent can change with it, so the terms of every ancestor and the origin are recalculated too.
+	 * Every other subtree reuses its cached partial, so no state is changed, although the model is left
+	 * with the events reconstructed for the given host until the next calculation.
+	 *
+	 * @param node the internal node
+	 * @param state the host to calculate for
+	 * @return log likelihood with the node mapped to the given host
+	 */
+	public double calculateLogLikelihoodForState(final NodeRef node, final NodeRef state) {
+
+		getLogLikelihood(); // Every partial must be current
+
+		final int i = node.getNumber();
+		final int currentState = reconstructedStates[i];
+		reconstructedStates[i] = state == null ? NO_HOST : state.getNumber();
+		try {
+			NodeRef self = node;
+			double logL = 0.0;
+			for (int k = 0; k < 2; ++k) logL += partialLogLikelihoods[symbiontTree.getChild(self, k).getNumber()];
+			while (logL != Double.NEGATIVE_INFINITY) {
+				final NodeRef child1 = symbiontTree.getChild(self, 0);
+				final NodeRef child2 = symbiontTree.getChild(self, 1);
+				logL += cophylogenyModel.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, getStatesForNode(self), getStatesForNode(child1), getStatesForNode(child2), branchRates);
+				if (symbiontTree.isRoot(self) || logL == Double.NEGATIVE_INFINITY) break;
+				final NodeRef parent = symbiontTree.getParent(self);
+				final NodeRef sibling = symbiontTree.getChild(parent, 0).equals(self) ? symbiontTree.getChild(parent, 1) : symbiontTree.getChild(parent, 0);
+				logL += partialLogLikelihoods[sibling.getNumber()];
+				self = parent;
+			}
+			if (logL != Double.NEGATIVE_INFINITY) logL += cophylogenyModel.calculateOriginLogLikelihood(symbiontTree, originHeight.getValue(0), self, hostTree, hostTree.getRoot(), getStatesForNode(self), branchRates);
+			return logL;
+		} finally {
+			reconstructedStates[i] = currentState;
+		}
+
+	}
+
+	/**
+	 * Flags a node for recalculation along with all of its ancestors, whose likelihoods depend on it.
+	 * @param node the changed node
+	 */
+	protected void updateNodeAndAncestors(NodeRef node) {
+		// An already flagged node implies flagged ancestors
+		while (node != null && !updateNode[node.getNumber()]) {
+			updateNode[node.getNumber()] = true;
+			node = symbiontTree.getParent(node);
+		}
+		likelihoodKnown = false;
+	}
+	
+	protected void updateAllNodes() {
+		Arrays.fill(updateNode, true);
+		likelihoodKnown = false;
+	}
 
 	@Override
 	public void makeDirty() {
-		likelihoodKnown = false;
+		updateAllNodes();
 	}
 	
 	@Override
 	protected void handleModelChangedEvent(Model model, Object object, int index) {
-		makeDirty();
+		if (model == symbiontTree) {
+			if (object instanceof TreeModel.TreeChangedEvent && ((TreeModel.TreeChangedEvent) object).isNodeChanged()) {
+				// A node's height or its children changed
+				updateNodeAndAncestors(((TreeModel.TreeChangedEvent) object).getNode());
+			} else {
+				updateAllNodes();
+			}
+		} else if (model == hostTree) {
+			hostTreeIndex.update();
+			updateAllNodes();
+		} else if (model == branchRates && index != -1 && !(object instanceof Variable)) {
+			// Rate of a single branch changed, which is used at the node and its parent
+			updateNodeAndAncestors(symbiontTree.getNode(index));
+		} else {
+			updateAllNodes();
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	protected void handleVariableChangedEvent(Variable variable, int index, ChangeType type) {
-		makeDirty();
+		// Only the origin, which is not cached
+		likelihoodKnown = false;
 	}
 
 	@Override
@@ -176,6 +310,9 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		storedLogLikelihood = logLikelihood;
 		
 		System.arraycopy(reconstructedStates, 0, storedReconstructedStates, 0, reconstructedStates.length);
+		System.arraycopy(partialLogLikelihoods, 0, storedPartialLogLikelihoods, 0, partialLogLikelihoods.length);
+		System.arraycopy(updateNode, 0, storedUpdateNode, 0, updateNode.length);
+		if (hostTreeIndex != null) hostTreeIndex.storeState();
 		
 	}
 
@@ -186,6 +323,9 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		logLikelihood = storedLogLikelihood;
 		
 		System.arraycopy(storedReconstructedStates, 0, reconstructedStates, 0, storedReconstructedStates.length);
+		System.arraycopy(storedPartialLogLikelihoods, 0, partialLogLikelihoods, 0, storedPartialLogLikelihoods.length);
+		System.arraycopy(storedUpdateNode, 0, updateNode, 0, storedUpdateNode.length);
+		if (hostTreeIndex != null) hostTreeIndex.restoreState();
 		
 	}
 
@@ -196,10 +336,20 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 	private final int[] reconstructedStates;
 	private final int[] storedReconstructedStates;
 	
+	/** Log likelihood of the subtree below each node, cached between evaluations */
+	private final double[] partialLogLikelihoods;
+	private final double[] storedPartialLogLikelihoods;
+	private final boolean[] updateNode;
+	private final boolean[] storedUpdateNode;
+	
 	private double logLikelihood;
 	private double storedLogLikelihood;
 	private boolean likelihoodKnown = false;
 	private boolean storedLikelihoodKnown = false;
+	
+	private EvaluationCounters evaluationCounters = null;
+	/** Internal nodes recalculated by the current evaluation, if counting */
+	private int recalculatedNodeCount = 0;
 
 	@Override
 	public Type getUnits() {
@@ -211,6 +361,33 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		cophylogenyModel.setUnits(units);
 	}
 	
+	/**
+	 * @return an index of the host tree's topology, kept current with the host tree
+	 */
+	public HostTreeIndex getHostTreeIndex() {
+		return hostTreeIndex;
+	}
+	
+	/**
+	 * Starts counting the evaluations of this likelihood and the cases of its model, or stops if the counters are null.
+	 */
+	public void setEvaluationCounters(final EvaluationCounters evaluationCounters) {
+		this.evaluationCounters = evaluationCounters;
+		cophylogenyModel.setEvaluationCounters(evaluationCounters);
+	}
+	
+	public EvaluationCounters getEvaluationCounters() {
+		return evaluationCounters;
+	}
+	
+	public CophylogenyModel getCophylogenyModel() {
+		return cophylogenyModel;
+	}
+	
+	public BranchRates getBranchRates() {
+		return branchRates;
+	}
+	
 	public NodeRef getStatesForNode(NodeRef node) {
 		
 		int hostIndex = reconstructedStates[node.getNumber()];
@@ -222,9 +399,9 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 	
 	public void setStatesForNode(NodeRef node, NodeRef state) {
 		
-		makeDirty();
+		updateNodeAndAncestors(node);
 		reconstructedStates[node.getNumber()] = state == null ? NO_HOST : state.getNumber();
-		fireModelChanged();
+		fireModelChanged(node);
 
 	}
 	
@@ -257,6 +434,10 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 		return originHeight.getParameterValue(0);
 	}
 	
+	public Parameter getOriginHeightParameter() {
+		return originHeight;
+	}
+	
 	@SuppressWarnings("rawtypes")
 	@Override
 	public TreeTrait[] getTreeTraits() {
@@ -273,7 +454,7 @@ public class CophylogenyLikelihood extends AbstractModelLikelihood implements Tr
 	
 	public void setOriginHeight(double d) {
 		originHeight.setParameterValue(0, d);
-		makeDirty();
+		likelihoodKnown = false;
 	}
 	
 }
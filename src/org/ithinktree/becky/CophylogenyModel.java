@@ -8,7 +8,7 @@
 package org.ithinktree.becky;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -33,6 +33,8 @@ public abstract class CophylogenyModel extends SpeciationModel {
 
 	protected double overallRate;
 	protected boolean dirty = true;
+	protected HostTreeIndex hostTreeIndex = null;
+	protected EvaluationCounters evaluationCounters = null;
 
 	/**
 	 * 
@@ -47,6 +49,38 @@ public abstract class CophylogenyModel extends SpeciationModel {
 	
 	protected abstract void updateVariables();
 	
+	public void setHostTreeIndex(final HostTreeIndex hostTreeIndex) {
+		this.hostTreeIndex = hostTreeIndex;
+	}
+	
+	/**
+	 * @param evaluationCounters counters for the cases of the model, or null to stop counting
+	 */
+	public void setEvaluationCounters(final EvaluationCounters evaluationCounters) {
+		this.evaluationCounters = evaluationCounters;
+	}
+	
+	/**
+	 * Determines the relationship between two host nodes, using the host tree index when it is available.
+	 */
+	protected final Utils.NodalRelationship determineRelationship(final Tree hostTree, final NodeRef self, final NodeRef relation) {
+		if (hostTreeIndex != null && hostTreeIndex.getTree() == hostTree)
+			return hostTreeIndex.determineRelationship(self, relation);
+		return Utils.determineRelationship(hostTree, self, relation);
+	}
+	
+	protected final int getContemporaneousLineageCount(final Tree hostTree, final double height) {
+		if (hostTreeIndex != null && hostTreeIndex.getTree() == hostTree)
+			return hostTreeIndex.getContemporaneousLineageCount(height);
+		return Utils.getContemporaneousLineageCount(hostTree, height);
+	}
+	
+	protected final NodeRef[] lostLineagesToTime(final Tree hostTree, final NodeRef n, final double d) {
+		if (hostTreeIndex != null && hostTreeIndex.getTree() == hostTree)
+			return hostTreeIndex.lostLineagesToTime(n, d);
+		return Utils.lostLineagesToTime(hostTree, n, d);
+	}
+	
 	protected final double likelihoodEventAtTime(final double t, final double lambda, final double rate) {
 		return lambda * rate * Math.exp(-overallRate * rate * t);
 	}
@@ -250,8 +284,11 @@ public abstract class CophylogenyModel extends SpeciationModel {
 //			return lineages;
 //		}
 		
+		/**
+		 * The lineages are in pre-order, so that simulations drawing from them are reproducible from a seed.
+		 */
 		public static final Set<NodeRef> getContemporaneousLineages(final Tree tree, final double height) {
-			Set<NodeRef> lineages = new HashSet<NodeRef>(tree.getExternalNodeCount());
+			Set<NodeRef> lineages = new LinkedHashSet<NodeRef>(tree.getExternalNodeCount());
 			getContemporaneousLineages(tree, tree.getRoot(), height, lineages);
 			return lineages;
 		}
@@ -6,17 +6,17 @@ import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.inference.operators.OperatorFailedException;
-import dr.inference.operators.SimpleMCMCOperator;
 import dr.math.MathUtils;
 
 
-public class CospeciationOperator extends SimpleMCMCOperator {
+public class CospeciationOperator extends AbstractAccountedOperator {
     
     private final Tree hostTree;
     private final MutableTree symbiontTree;
     private final CophylogenyLikelihood cophylogenyLikelihood;
     
     public CospeciationOperator(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final double weight) {
+        super(cophylogenyLikelihood);
         this.hostTree = hostTree;
         this.symbiontTree = symbiontTree;
         this.cophylogenyLikelihood = cophylogenyLikelihood;
@@ -25,11 +25,11 @@ public class CospeciationOperator extends SimpleMCMCOperator {
     
     @Override
     public String getPerformanceSuggestion() {
-        return "No performance suggestion";
+        return accounting.getPerformanceSuggestion(getWeight(), "most symbiont nodes are on host tips or below their children, where they cannot cospeciate", null);
     }
     
     @Override
-    public double doOperation() throws OperatorFailedException {
+    protected double propose() throws OperatorFailedException {
         
         final NodeRef node = symbiontTree.getInternalNode(MathUtils.nextInt(symbiontTree.getInternalNodeCount()));
         final NodeRef host = cophylogenyLikelihood.getStatesForNode(node);
@@ -0,0 +1,115 @@
+/**
+ * DelayedAcceptanceOperator.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import org.ithinktree.becky.xml.DelayedAcceptanceOperatorParser;
+
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+
+/**
+ * Screens the proposals of another operator with a cheap approximation to the cophylogeny likelihood,
+ * so the full likelihood is only calculated for proposals that pass (delayed acceptance, Christen and Fox 2005).
+ * <p/>
+ * A proposal passes with probability min(1, q(x|x') L'(x') / q(x'|x) L'(x)), where L' is the approximation, and otherwise
+ * fails before the chain evaluates it. For those that pass the returned Hastings ratio is L'(x) / L'(x'), so the chain
+ * accepts them with probability min(1, p(x') L'(x) / p(x) L'(x')) and the posterior p is left invariant.
+ * Any adaptation of the screened operator is not driven through this one.
+ *
+ * @see NoExtinctionCophylogenyLikelihood
+ * @author Arman D. Bilge
+ *
+ */
+public class DelayedAcceptanceOperator extends SimpleMCMCOperator {
+
+	private final MCMCOperator operator;
+	private final CophylogenyLikelihood screen;
+
+	private boolean screenStored = false;
+	private int screenedOutCount = 0;
+
+	public DelayedAcceptanceOperator(final MCMCOperator operator, final CophylogenyLikelihood screen, final double weight) {
+		this.operator = operator;
+		this.screen = screen;
+		setWeight(weight);
+	}
+
+	@Override
+	public String getPerformanceSuggestion() {
+		final int count = getCount();
+		if (count > 0 && screenedOutCount < 0.1 * count)
+			return "Only " + screenedOutCount + " of " + count + " proposals were screened out, so " + operator.getOperatorName() + " may be faster on its own";
+		return "No performance suggestion";
+	}
+
+	@Override
+	public String getOperatorName() {
+		return DelayedAcceptanceOperatorParser.DELAYED_ACCEPTANCE_OPERATOR + "(" + operator.getOperatorName() + ")";
+	}
+
+	@Override
+	public double doOperation() throws OperatorFailedException {
+
+		final double logScreen = screen.getLogLikelihood();
+		screen.storeState();
+		screenStored = true;
+
+		final double logHastingsRatio;
+		try {
+			logHastingsRatio = operator.operate();
+		} catch (OperatorFailedException e) {
+			restoreScreen();
+			throw e;
+		}
+
+		// Nothing to screen against from an impossible state
+		if (logScreen == Double.NEGATIVE_INFINITY) return logHastingsRatio;
+
+		final double logProposedScreen = screen.getLogLikelihood();
+		final double logRatio = logProposedScreen - logScreen + logHastingsRatio;
+		if (!(logRatio >= 0.0 || Math.log(MathUtils.nextDouble()) < logRatio)) {
+			restoreScreen();
+			++screenedOutCount;
+			throw new OperatorFailedException("Screened out");
+		}
+		return logScreen - logProposedScreen;
+
+	}
+
+	private void restoreScreen() {
+		if (screenStored) screen.restoreState();
+		screenStored = false;
+	}
+
+	@Override
+	public void accept(final double deviation) {
+		super.accept(deviation);
+		operator.accept(deviation);
+		screenStored = false;
+	}
+
+	@Override
+	public void reject() {
+		super.reject();
+		operator.reject();
+		restoreScreen();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		operator.reset();
+		screenedOutCount = 0;
+	}
+
+	public int getScreenedOutCount() {
+		return screenedOutCount;
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * EvaluationCounters.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.Arrays;
+
+import org.ithinktree.becky.xml.EvaluationCountersParser;
+
+import dr.inference.model.Statistic;
+
+/**
+ * Counts where the cophylogeny likelihood spends its time: full and partial evaluations, the symbiont nodes they
+ * recalculate, the cases of the model that the mappings fall into and the calls for the likelihood that a lineage
+ * is lost within a host subtree, with the nanoseconds spent in each. A stochastic model also counts its Monte Carlo
+ * estimates of those and the iterations simulated for them. Counting is off unless a likelihood is given
+ * counters, which costs it a null check per node otherwise.
+ * <p/>
+ * Each counter is a dimension of the statistic, so it can be logged, and the summary is for the end of the run.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class EvaluationCounters extends Statistic.Abstract {
+
+	public enum Counter {
+
+		FULL_EVALUATIONS("fullEvaluations"),
+		PARTIAL_EVALUATIONS("partialEvaluations"),
+		EVALUATION_NANOS("evaluationNanos"),
+		NODES_VISITED("nodesVisited"),
+		NODE_NANOS("nodeNanos"),
+		COSPECIATIONS("cospeciations"),
+		DUPLICATIONS_THEN_LOSSES("duplicationsThenLosses"),
+		COSPECIATIONS_WITH_HOST_SWITCH_LOSS("cospeciationsWithHostSwitchLoss"),
+		DOUBLE_HOST_SWITCHES("doubleHostSwitches"),
+		OTHER_MAPPINGS("otherMappings"),
+		INFEASIBLE_MAPPINGS("infeasibleMappings"),
+		LINEAGE_LOSS_CALLS("lineageLossCalls"),
+		LINEAGE_LOSS_NANOS("lineageLossNanos"),
+		MONTE_CARLO_ESTIMATES("monteCarloEstimates"),
+		MONTE_CARLO_ITERATIONS("monteCarloIterations");
+
+		private final String name;
+
+		private Counter(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+	}
+
+	private static final Counter[] COUNTERS = Counter.values();
+
+	private final long[] counts = new long[COUNTERS.length];
+
+	public EvaluationCounters() {
+		this(EvaluationCountersParser.EVALUATION_COUNTERS);
+	}
+
+	public EvaluationCounters(final String name) {
+		super(name);
+	}
+
+	public void increment(final Counter counter) {
+		++counts[counter.ordinal()];
+	}
+
+	public void add(final Counter counter, final long count) {
+		counts[counter.ordinal()] += count;
+	}
+
+	public long getCount(final Counter counter) {
+		return counts[counter.ordinal()];
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+	}
+
+	@Override
+	public int getDimension() {
+		return COUNTERS.length;
+	}
+
+	@Override
+	public String getDimensionName(final int dim) {
+		return getStatisticName() + "." + COUNTERS[dim].getName();
+	}
+
+	@Override
+	public double getStatisticValue(final int dim) {
+		return counts[dim];
+	}
+
+	private static double ratio(final long a, final long b) {
+		return b == 0 ? 0.0 : (double) a / b;
+	}
+
+	/**
+	 * @return the counts, with the mean cost of an evaluation, a node and a lineage loss, how often each case is hit
+	 * and the mean iterations of a Monte Carlo estimate
+	 */
+	public String getSummary() {
+
+		final StringBuilder summary = new StringBuilder();
+		final String nl = System.getProperty("line.separator");
+
+		final long evaluations = getCount(Counter.FULL_EVALUATIONS) + getCount(Counter.PARTIAL_EVALUATIONS);
+		final long nodes = getCount(Counter.NODES_VISITED);
+		long mappings = 0;
+		for (int i = Counter.COSPECIATIONS.ordinal(); i <= Counter.INFEASIBLE_MAPPINGS.ordinal(); ++i)
+			mappings += counts[i];
+
+		summary.append("Cophylogeny likelihood evaluation counters").append(nl);
+		summary.append(String.format("  %-34s%d (%d full, %d partial), %.1f ns each", "evaluations:", evaluations, getCount(Counter.FULL_EVALUATIONS), getCount(Counter.PARTIAL_EVALUATIONS), ratio(getCount(Counter.EVALUATION_NANOS), evaluations))).append(nl);
+		summary.append(String.format("  %-34s%d, %.1f per evaluation, %.1f ns each", "nodes visited:", nodes, ratio(nodes, evaluations), ratio(getCount(Counter.NODE_NANOS), nodes))).append(nl);
+		for (int i = Counter.COSPECIATIONS.ordinal(); i <= Counter.INFEASIBLE_MAPPINGS.ordinal(); ++i)
+			summary.append(String.format("  %-34s%d (%.2f%%)", COUNTERS[i].getName() + ":", counts[i], 100.0 * ratio(counts[i], mappings))).append(nl);
+		summary.append(String.format("  %-34s%d, %.1f ns each", "lineage loss calls:", getCount(Counter.LINEAGE_LOSS_CALLS), ratio(getCount(Counter.LINEAGE_LOSS_NANOS), getCount(Counter.LINEAGE_LOSS_CALLS)))).append(nl);
+		if (getCount(Counter.MONTE_CARLO_ESTIMATES) > 0)
+			summary.append(String.format("  %-34s%d, %.1f iterations each", "Monte Carlo estimates:", getCount(Counter.MONTE_CARLO_ESTIMATES), ratio(getCount(Counter.MONTE_CARLO_ITERATIONS), getCount(Counter.MONTE_CARLO_ESTIMATES)))).append(nl);
+
+		return summary.toString();
+
+	}
+
+	@Override
+	public String toString() {
+		return getSummary();
+	}
+
+}
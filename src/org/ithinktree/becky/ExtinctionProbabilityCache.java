@@ -0,0 +1,121 @@
+/**
+ * ExtinctionProbabilityCache.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+
+package org.ithinktree.becky;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the likelihoods that a symbiont lineage is lost within a host subtree,
+ * keyed by host node, branch rate and whether the host lineage itself is excluded.
+ * <p/>
+ * Each key has a fixed number of rate slots, evicted round-robin. Entries are only valid for
+ * the model rates and host tree version the cache was last validated against; a change to either
+ * clears it, while the entries from before the change are kept aside until the next store so
+ * a rejected proposal can restore them.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class ExtinctionProbabilityCache {
+
+	private static final int SLOTS = 4;
+
+	private Generation current = new Generation();
+	private Generation stored = new Generation();
+	private boolean swapped = false;
+
+	private static final class Generation {
+
+		double duplicationRate = Double.NaN;
+		double hostSwitchRate = Double.NaN;
+		double lossRate = Double.NaN;
+		long hostTreeVersion = -1;
+
+		double[] rates = new double[0];
+		double[] values = new double[0];
+		byte[] nextSlot = new byte[0];
+
+		boolean matches(final double duplicationRate, final double hostSwitchRate, final double lossRate, final long hostTreeVersion, final int nodeCount) {
+			return this.duplicationRate == duplicationRate && this.hostSwitchRate == hostSwitchRate && this.lossRate == lossRate
+					&& this.hostTreeVersion == hostTreeVersion && nextSlot.length == 2 * nodeCount;
+		}
+
+		void reset(final double duplicationRate, final double hostSwitchRate, final double lossRate, final long hostTreeVersion, final int nodeCount) {
+			this.duplicationRate = duplicationRate;
+			this.hostSwitchRate = hostSwitchRate;
+			this.lossRate = lossRate;
+			this.hostTreeVersion = hostTreeVersion;
+			if (nextSlot.length != 2 * nodeCount) {
+				rates = new double[2 * nodeCount * SLOTS];
+				values = new double[rates.length];
+				nextSlot = new byte[2 * nodeCount];
+			}
+			// NaN never equals a rate, so marks an empty slot
+			Arrays.fill(rates, Double.NaN);
+			Arrays.fill(nextSlot, (byte) 0);
+		}
+
+	}
+
+	/**
+	 * Makes sure the cache only holds entries for the given model rates and host tree.
+	 */
+	public void validate(final double duplicationRate, final double hostSwitchRate, final double lossRate, final long hostTreeVersion, final int nodeCount) {
+		if (current.matches(duplicationRate, hostSwitchRate, lossRate, hostTreeVersion, nodeCount))
+			return;
+		if (stored.matches(duplicationRate, hostSwitchRate, lossRate, hostTreeVersion, nodeCount)) {
+			// Back to the other generation, e.g. a proposal that was undone
+			swap();
+			swapped = !swapped;
+			return;
+		}
+		if (!swapped) {
+			swap();
+			swapped = true;
+		}
+		current.reset(duplicationRate, hostSwitchRate, lossRate, hostTreeVersion, nodeCount);
+	}
+
+	/**
+	 * @return the cached likelihood, or NaN if there is none
+	 */
+	public double get(final int node, final boolean excludeRoot, final double rate) {
+		final int offset = (2 * node + (excludeRoot ? 1 : 0)) * SLOTS;
+		final double[] rates = current.rates;
+		for (int i = offset; i < offset + SLOTS; ++i) {
+			if (rates[i] == rate) return current.values[i];
+		}
+		return Double.NaN;
+	}
+
+	public void put(final int node, final boolean excludeRoot, final double rate, final double likelihood) {
+		final int key = 2 * node + (excludeRoot ? 1 : 0);
+		final int slot = current.nextSlot[key];
+		current.rates[key * SLOTS + slot] = rate;
+		current.values[key * SLOTS + slot] = likelihood;
+		current.nextSlot[key] = (byte) ((slot + 1) % SLOTS);
+	}
+
+	public void storeState() {
+		swapped = false;
+	}
+
+	public void restoreState() {
+		if (swapped) {
+			swap();
+			swapped = false;
+		}
+	}
+
+	private void swap() {
+		final Generation temp = current;
+		current = stored;
+		stored = temp;
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+ * ExtinctionProbabilitySolver.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+
+package org.ithinktree.becky;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+/**
+ * Computes the probability that a symbiont lineage leaves no descendants in the present by integrating
+ * the backward extinction equations of the coevolutionary process over the host tree.
+ * <p/>
+ * Going back in time, the probability E<sub>x</sub> for a symbiont on host lineage x obeys
+ * dE<sub>x</sub>/dt = &mu; + &delta;E<sub>x</sub><sup>2</sup> + &sigma;E<sub>x</sub>&#274;<sub>x</sub> - (&delta; + &sigma; + &mu;)E<sub>x</sub>,
+ * where &#274;<sub>x</sub> is the mean over the other contemporaneous host lineages, which couples the
+ * equations through host-switching. The set of host lineages is fixed between consecutive host node
+ * heights, so the equations are integrated epoch by epoch with a classic fourth-order Runge-Kutta method.
+ * At a host speciation the probability is the product of those of both host children, and it is zero at a tip.
+ * <p/>
+ * This is exactly the quantity that StochasticLikelihoodNoDescendants estimates by simulation.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class ExtinctionProbabilitySolver {
+
+	/** Default maximum step, in expected events per lineage */
+	public static final double DEFAULT_STEP_SIZE = 0.01;
+
+	private final double stepSize;
+
+	// Host nodes, children before parents, in order of height
+	private Integer[] order = new Integer[0];
+	private double[] heights = new double[0];
+
+	// Lineages of the current epoch and their probabilities
+	private int[] activeNodes = new int[0];
+	private int[] activePositions = new int[0];
+	private double[] e = new double[0];
+	private double[] k1, k2, k3, k4, scratch;
+
+	public ExtinctionProbabilitySolver() {
+		this(DEFAULT_STEP_SIZE);
+	}
+
+	/**
+	 * @param stepSize the largest integration step, in expected events per lineage
+	 */
+	public ExtinctionProbabilitySolver(final double stepSize) {
+		if (!(stepSize > 0.0)) throw new IllegalArgumentException("Step size must be positive");
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * Solves for the probabilities of no descendants of a symbiont lineage at the bottom (the height of
+	 * the host node itself, once it has speciated) and at the top (the height of its parent) of every host lineage.
+	 * The root lineage is taken to have no length.
+	 *
+	 * @param duplicationRate duplication rate, already scaled by the symbiont branch rate
+	 * @param hostSwitchRate host-switch rate, already scaled by the symbiont branch rate
+	 * @param lossRate loss rate, already scaled by the symbiont branch rate
+	 * @param bottom filled with the probability at the bottom of each host lineage, by node number
+	 * @param top filled with the probability at the top of each host lineage, by node number
+	 */
+	public void solve(final Tree tree, final double duplicationRate, final double hostSwitchRate, final double lossRate, final double[] bottom, final double[] top) {
+
+		final int nodeCount = tree.getNodeCount();
+		if (heights.length != nodeCount) {
+			order = new Integer[nodeCount];
+			heights = new double[nodeCount];
+			activeNodes = new int[nodeCount];
+			activePositions = new int[nodeCount];
+			e = new double[nodeCount];
+			k1 = new double[nodeCount];
+			k2 = new double[nodeCount];
+			k3 = new double[nodeCount];
+			k4 = new double[nodeCount];
+			scratch = new double[nodeCount];
+		}
+
+		// Postorder, then a stable sort by height, so children always come before their parents
+		int i = 0;
+		NodeRef node = tree.getRoot();
+		while (!tree.isExternal(node)) node = tree.getChild(node, 0);
+		while (node != null) {
+			order[i++] = node.getNumber();
+			heights[node.getNumber()] = tree.getNodeHeight(node);
+			if (tree.isRoot(node)) {
+				node = null;
+			} else {
+				final NodeRef parent = tree.getParent(node);
+				if (tree.getChild(parent, 0).equals(node)) {
+					node = tree.getChild(parent, 1);
+					while (!tree.isExternal(node)) node = tree.getChild(node, 0);
+				} else {
+					node = parent;
+				}
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(heights[a], heights[b]);
+			}
+		});
+
+		int activeCount = 0;
+		double height = heights[order[0]];
+		for (final int n : order) {
+			final NodeRef hostNode = tree.getNode(n);
+			if (heights[n] > height) {
+				integrate(activeCount, heights[n] - height, duplicationRate, hostSwitchRate, lossRate);
+				height = heights[n];
+			}
+			if (tree.isExternal(hostNode)) {
+				bottom[n] = 0.0; // Reached the present
+			} else {
+				bottom[n] = 1.0;
+				for (int j = 0; j < 2; ++j) {
+					final int c = tree.getChild(hostNode, j).getNumber();
+					final int position = activePositions[c];
+					top[c] = e[position];
+					bottom[n] *= top[c];
+					// Replace the child with the last active lineage
+					--activeCount;
+					activeNodes[position] = activeNodes[activeCount];
+					e[position] = e[activeCount];
+					activePositions[activeNodes[position]] = position;
+				}
+			}
+			activeNodes[activeCount] = n;
+			e[activeCount] = bottom[n];
+			activePositions[n] = activeCount;
+			++activeCount;
+		}
+		top[tree.getRoot().getNumber()] = bottom[tree.getRoot().getNumber()];
+
+	}
+
+	private void integrate(final int count, final double length, final double duplicationRate, final double hostSwitchRate, final double lossRate) {
+		final double overallRate = duplicationRate + hostSwitchRate + lossRate;
+		final int steps = Math.max(1, (int) Math.ceil(length * overallRate / stepSize));
+		final double h = length / steps;
+		for (int s = 0; s < steps; ++s) {
+			derivatives(e, k1, count, duplicationRate, hostSwitchRate, lossRate, overallRate);
+			for (int i = 0; i < count; ++i) scratch[i] = e[i] + h / 2 * k1[i];
+			derivatives(scratch, k2, count, duplicationRate, hostSwitchRate, lossRate, overallRate);
+			for (int i = 0; i < count; ++i) scratch[i] = e[i] + h / 2 * k2[i];
+			derivatives(scratch, k3, count, duplicationRate, hostSwitchRate, lossRate, overallRate);
+			for (int i = 0; i < count; ++i) scratch[i] = e[i] + h * k3[i];
+			derivatives(scratch, k4, count, duplicationRate, hostSwitchRate, lossRate, overallRate);
+			for (int i = 0; i < count; ++i) e[i] += h / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]);
+		}
+	}
+
+	private static void derivatives(final double[] e, final double[] de, final int count, final double duplicationRate, final double hostSwitchRate, final double lossRate, final double overallRate) {
+		double sum = 0.0;
+		for (int i = 0; i < count; ++i) sum += e[i];
+		for (int i = 0; i < count; ++i) {
+			// A lone lineage has nowhere to switch to, so the switched copy is lost
+			final double others = count > 1 ? (sum - e[i]) / (count - 1) : 1.0;
+			de[i] = lossRate + duplicationRate * e[i] * e[i] + hostSwitchRate * e[i] * others - overallRate * e[i];
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ * GibbsHostOperator.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.List;
+
+import org.ithinktree.becky.xml.GibbsHostOperatorParser;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.inference.operators.GibbsOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+
+/**
+ * Draws the host of an internal symbiont node from its full conditional distribution.
+ * Every host lineage contemporaneous with the node is a candidate, weighted by the likelihood of the
+ * mapping with the node on it, of which only the terms of the node and its ancestors are recalculated.
+ * Each move is more expensive than a host-switch but is always accepted.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class GibbsHostOperator extends SimpleMCMCOperator implements GibbsOperator {
+
+	private final Tree hostTree;
+	private final MutableTree symbiontTree;
+	private final CophylogenyLikelihood cophylogenyLikelihood;
+
+	private double[] weights = new double[0];
+
+	private int moveCount = 0;
+	private int changedCount = 0;
+	private long candidateCount = 0;
+
+	public GibbsHostOperator(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final double weight) {
+		this.hostTree = hostTree;
+		this.symbiontTree = symbiontTree;
+		this.cophylogenyLikelihood = cophylogenyLikelihood;
+		setWeight(weight);
+	}
+
+	/**
+	 * Reports how often the host changed and how many candidates were weighed per move. A move that keeps the host
+	 * still costs a root-ward path per candidate, so if few change anything the weight can come down.
+	 */
+	@Override
+	public String getPerformanceSuggestion() {
+
+		if (moveCount == 0) return "No performance suggestion";
+
+		final double changed = (double) changedCount / moveCount;
+		final StringBuilder suggestion = new StringBuilder(String.format("%.1f%% of moves changed the host, %.1f candidates per move",
+				100.0 * changed, (double) candidateCount / moveCount));
+		if (changed < 0.1)
+			suggestion.append(String.format("; the conditionals are concentrated, so try a weight of %.2f instead of %.2f", getWeight() * Math.max(changed, 0.01) / 0.1, getWeight()));
+		return suggestion.toString();
+
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		moveCount = 0;
+		changedCount = 0;
+		candidateCount = 0;
+	}
+
+	@Override
+	public String getOperatorName() {
+		return GibbsHostOperatorParser.GIBBS_HOST_OPERATOR + "(" + symbiontTree.getId() + ")";
+	}
+
+	@Override
+	public int getStepCount() {
+		return 1;
+	}
+
+	@Override
+	public double doOperation() throws OperatorFailedException {
+
+		// The conditional is taken relative to the cached partials, which are only all current for a valid state
+		if (cophylogenyLikelihood.getLogLikelihood() == Double.NEGATIVE_INFINITY) throw new OperatorFailedException("Invalid state");
+
+		final NodeRef node = symbiontTree.getInternalNode(MathUtils.nextInt(symbiontTree.getInternalNodeCount()));
+		final List<NodeRef> hosts = cophylogenyLikelihood.getHostTreeIndex().getContemporaneousLineages(symbiontTree.getNodeHeight(node));
+		if (hosts.isEmpty()) throw new OperatorFailedException("No host");
+
+		if (weights.length < hosts.size()) weights = new double[hostTree.getNodeCount()];
+		double maxLogWeight = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < hosts.size(); ++i) {
+			weights[i] = cophylogenyLikelihood.calculateLogLikelihoodForState(node, hosts.get(i));
+			maxLogWeight = Math.max(maxLogWeight, weights[i]);
+		}
+		if (maxLogWeight == Double.NEGATIVE_INFINITY) throw new OperatorFailedException("No feasible host");
+
+		double sum = 0.0;
+		for (int i = 0; i < hosts.size(); ++i) {
+			weights[i] = Math.exp(weights[i] - maxLogWeight);
+			sum += weights[i];
+		}
+		double u = MathUtils.nextDouble() * sum;
+		int chosen = -1;
+		for (int i = 0; i < hosts.size() && u >= 0.0; ++i) {
+			// Never land on an impossible host through rounding
+			if (weights[i] == 0.0) continue;
+			chosen = i;
+			u -= weights[i];
+		}
+
+		++moveCount;
+		candidateCount += hosts.size();
+		if (!hosts.get(chosen).equals(cophylogenyLikelihood.getStatesForNode(node))) ++changedCount;
+
+		// Set even when unchanged, so the events reconstructed for the last candidate are recalculated
+		cophylogenyLikelihood.setStatesForNode(node, hosts.get(chosen));
+		return 0.0;
+	}
+
+}
@@ -0,0 +1,303 @@
+/**
+ * HostMappingFilter.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import java.util.Arrays;
+import java.util.List;
+
+import dr.evolution.tree.BranchRates;
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
+
+/**
+ * A dynamic program over the host mappings of a symbiont tree under a SimpleCophylogenyModel, given
+ * the node heights and the hosts of the tips.
+ * <p/>
+ * The term of a node depends on its host, those of its children and the events reconstructed at its children,
+ * and the event reconstructed at a node is fixed by its host and those of its children. So going in post-order,
+ * the partial likelihood of each subtree is computed for every contemporaneous host and event at its root,
+ * summing over the hosts and events of the children. Weighed by the origin term, the partials at the root sum
+ * to the likelihood marginalised over every mapping, and a mapping can be drawn from its conditional distribution
+ * going back in pre-order, each node's children conditional on its own host and event. Filtering a node costs
+ * a number of node terms cubic in the number of contemporaneous host lineages.
+ * <p/>
+ * Maximising instead of summing, the same program finds the most likely mapping.
+ * <p/>
+ * The candidate hosts and log partials are held by the caller, by symbiont node number, with the partial
+ * of host a and event e at a * EVENT_COUNT + e. Filtering leaves the model with arbitrary reconstructed
+ * events, so every node term must be recalculated before the model is used again.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class HostMappingFilter {
+
+	public static final int EVENT_COUNT = SimpleCophylogenyModel.EventType.values().length;
+
+	private static final NodeRef[] NO_HOSTS = new NodeRef[0];
+
+	private final Tree hostTree;
+	private final MutableTree symbiontTree;
+	private final SimpleCophylogenyModel cophylogenyModel;
+	private final BranchRates branchRates;
+	private final HostTreeIndex hostTreeIndex;
+	private final boolean maximize;
+
+	private double[] rootWeights = new double[0];
+	private double[] scratch = new double[0];
+	private byte[] eventScratch = new byte[0];
+	private int[] hostIndices = new int[0];
+	private int[] events = new int[0];
+
+	public HostMappingFilter(final Tree hostTree, final MutableTree symbiontTree, final SimpleCophylogenyModel cophylogenyModel, final BranchRates branchRates, final HostTreeIndex hostTreeIndex) {
+		this(hostTree, symbiontTree, cophylogenyModel, branchRates, hostTreeIndex, false);
+	}
+
+	/**
+	 * @param maximize whether to keep the most likely mapping below each host and event instead of summing
+	 * over all of them, so that the likelihood is that of the most likely mapping and sampling returns it
+	 */
+	public HostMappingFilter(final Tree hostTree, final MutableTree symbiontTree, final SimpleCophylogenyModel cophylogenyModel, final BranchRates branchRates, final HostTreeIndex hostTreeIndex, final boolean maximize) {
+		this.hostTree = hostTree;
+		this.symbiontTree = symbiontTree;
+		this.cophylogenyModel = cophylogenyModel;
+		this.branchRates = branchRates;
+		this.hostTreeIndex = hostTreeIndex;
+		this.maximize = maximize;
+	}
+
+	/**
+	 * A tip has its own host as its only candidate, without an event.
+	 * @param host the host of the tip, or null if it has none, when it has no candidates
+	 */
+	public void filterTip(final NodeRef tip, final NodeRef host, final NodeRef[][] candidates, final double[][] partials) {
+		final int i = tip.getNumber();
+		if (host == null) {
+			candidates[i] = NO_HOSTS;
+			resetPartials(partials, i, 0);
+		} else {
+			candidates[i] = new NodeRef[]{host};
+			resetPartials(partials, i, 1)[SimpleCophylogenyModel.NO_EVENT] = 0.0;
+		}
+	}
+
+	/**
+	 * Computes the candidates and partials of an internal node from those of its children.
+	 */
+	public void filterNode(final NodeRef self, final NodeRef[][] candidates, final double[][] partials) {
+		final int i = self.getNumber();
+		final List<NodeRef> hosts = hostTreeIndex.getContemporaneousLineages(symbiontTree.getNodeHeight(self));
+		candidates[i] = hosts.toArray(new NodeRef[hosts.size()]);
+		final double[] partial = resetPartials(partials, i, candidates[i].length);
+		for (int a = 0; a < candidates[i].length; ++a) {
+			final int count = fillChildWeights(self, candidates[i][a], -1, candidates, partials);
+			for (int k = 0; k < count; ++k) {
+				if (scratch[k] == Double.NEGATIVE_INFINITY) continue;
+				final int j = a * EVENT_COUNT + eventScratch[k];
+				partial[j] = combine(partial[j], scratch[k]);
+			}
+		}
+	}
+
+	/**
+	 * @return the log likelihood summed over every mapping, or that of the most likely one when maximising, from the partials at the root
+	 */
+	public double calculateLogLikelihood(final double originHeight, final NodeRef[][] candidates, final double[][] partials) {
+		final int count = weighRoot(originHeight, candidates, partials);
+		double logL = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < count; ++j) logL = combine(logL, rootWeights[j]);
+		return logL;
+	}
+
+	/**
+	 * Draws a mapping from its conditional distribution, or finds the most likely one when maximising,
+	 * given current partials for every node.
+	 *
+	 * @param postorder every symbiont node in post-order
+	 * @param mapping filled with the host of every node, by node number
+	 * @return false if no mapping is possible
+	 */
+	public boolean sample(final double originHeight, final NodeRef[][] candidates, final double[][] partials, final NodeRef[] postorder, final NodeRef[] mapping) {
+		return sample(originHeight, candidates, partials, postorder, mapping, null);
+	}
+
+	/**
+	 * As above, but drawing from the given stream, so that the draws leave the global one untouched.
+	 *
+	 * @param random the stream to draw from, or null for the global one
+	 */
+	public boolean sample(final double originHeight, final NodeRef[][] candidates, final double[][] partials, final NodeRef[] postorder, final NodeRef[] mapping, final MersenneTwisterFast random) {
+
+		if (hostIndices.length < postorder.length) {
+			hostIndices = new int[postorder.length];
+			events = new int[postorder.length];
+		}
+
+		final int r = symbiontTree.getRoot().getNumber();
+		final int count = weighRoot(originHeight, candidates, partials);
+		final int j = choose(rootWeights, count, random);
+		if (j < 0) return false;
+		hostIndices[r] = j / EVENT_COUNT;
+		events[r] = j % EVENT_COUNT;
+		// Reversed, the post-order has every node before its descendants
+		for (int n = postorder.length - 1; n >= 0; --n) {
+			final NodeRef self = postorder[n];
+			final int i = self.getNumber();
+			mapping[i] = candidates[i][hostIndices[i]];
+			if (symbiontTree.isExternal(self)) continue;
+			final int weightCount = fillChildWeights(self, mapping[i], events[i], candidates, partials);
+			final int k = choose(scratch, weightCount, random);
+			if (k < 0) return false; // Only through rounding
+			final int c1 = symbiontTree.getChild(self, 0).getNumber();
+			final int c2 = symbiontTree.getChild(self, 1).getNumber();
+			final int c2Size = candidates[c2].length * EVENT_COUNT;
+			hostIndices[c1] = k / c2Size / EVENT_COUNT;
+			events[c1] = k / c2Size % EVENT_COUNT;
+			hostIndices[c2] = k % c2Size / EVENT_COUNT;
+			events[c2] = k % EVENT_COUNT;
+		}
+		return true;
+	}
+
+	/**
+	 * Fills the given array with the symbiont nodes in post-order, without recursion.
+	 */
+	public void fillPostorder(final NodeRef[] postorder) {
+		int n = 0;
+		NodeRef node = symbiontTree.getRoot();
+		while (!symbiontTree.isExternal(node)) node = symbiontTree.getChild(node, 0);
+		while (node != null) {
+			postorder[n++] = node;
+			if (symbiontTree.isRoot(node)) {
+				node = null;
+			} else {
+				final NodeRef parent = symbiontTree.getParent(node);
+				if (symbiontTree.getChild(parent, 0).equals(node)) {
+					node = symbiontTree.getChild(parent, 1);
+					while (!symbiontTree.isExternal(node)) node = symbiontTree.getChild(node, 0);
+				} else {
+					node = parent;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the root weights with the partials at the root times the origin term.
+	 * @return the number of weights
+	 */
+	private int weighRoot(final double originHeight, final NodeRef[][] candidates, final double[][] partials) {
+		final NodeRef root = symbiontTree.getRoot();
+		final int r = root.getNumber();
+		final int count = partials[r].length;
+		if (rootWeights.length < count) rootWeights = new double[count];
+		for (int a = 0; a < candidates[r].length; ++a) {
+			for (int e = 0; e < EVENT_COUNT; ++e) {
+				final int j = a * EVENT_COUNT + e;
+				rootWeights[j] = partials[r][j];
+				if (rootWeights[j] == Double.NEGATIVE_INFINITY) continue;
+				cophylogenyModel.setReconstructedEvent(root, (byte) e);
+				rootWeights[j] += cophylogenyModel.calculateOriginLogLikelihood(symbiontTree, originHeight, root, hostTree, hostTree.getRoot(), candidates[r][a], branchRates);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Fills the scratch arrays with the log weight of every host and event of both children of a node on a given host,
+	 * and with the event then reconstructed at the node. Both are indexed by
+	 * ((child 1 host * events + child 1 event) * child 2 hosts + child 2 host) * events + child 2 event.
+	 *
+	 * @param event the event the node must have, or -1 for any
+	 * @return the number of weights
+	 */
+	private int fillChildWeights(final NodeRef self, final NodeRef selfHost, final int event, final NodeRef[][] candidates, final double[][] partials) {
+		final NodeRef child1 = symbiontTree.getChild(self, 0);
+		final NodeRef child2 = symbiontTree.getChild(self, 1);
+		final NodeRef[] hosts1 = candidates[child1.getNumber()];
+		final NodeRef[] hosts2 = candidates[child2.getNumber()];
+		final double[] partials1 = partials[child1.getNumber()];
+		final double[] partials2 = partials[child2.getNumber()];
+		final int count = hosts1.length * EVENT_COUNT * hosts2.length * EVENT_COUNT;
+		if (scratch.length < count) {
+			scratch = new double[count];
+			eventScratch = new byte[count];
+		}
+		Arrays.fill(scratch, 0, count, Double.NEGATIVE_INFINITY);
+		for (int b = 0; b < hosts1.length; ++b) {
+			for (int c = 0; c < hosts2.length; ++c) {
+				for (int e1 = 0; e1 < EVENT_COUNT; ++e1) {
+					final double p1 = partials1[b * EVENT_COUNT + e1];
+					if (p1 == Double.NEGATIVE_INFINITY) continue;
+					for (int e2 = 0; e2 < EVENT_COUNT; ++e2) {
+						final double p2 = partials2[c * EVENT_COUNT + e2];
+						if (p2 == Double.NEGATIVE_INFINITY) continue;
+						if (!symbiontTree.isExternal(child1)) cophylogenyModel.setReconstructedEvent(child1, (byte) e1);
+						if (!symbiontTree.isExternal(child2)) cophylogenyModel.setReconstructedEvent(child2, (byte) e2);
+						final double term = cophylogenyModel.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, selfHost, hosts1[b], hosts2[c], branchRates);
+						if (term == Double.NEGATIVE_INFINITY) continue;
+						final byte e = cophylogenyModel.getReconstructedEventType(self);
+						if (event >= 0 && e != event) continue;
+						final int k = ((b * EVENT_COUNT + e1) * hosts2.length + c) * EVENT_COUNT + e2;
+						scratch[k] = term + p1 + p2;
+						eventScratch[k] = e;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private static double[] resetPartials(final double[][] partials, final int i, final int hostCount) {
+		final int length = hostCount * EVENT_COUNT;
+		if (partials[i] == null || partials[i].length != length) partials[i] = new double[length];
+		Arrays.fill(partials[i], Double.NEGATIVE_INFINITY);
+		return partials[i];
+	}
+
+	private double combine(final double a, final double b) {
+		return maximize ? Math.max(a, b) : logSum(a, b);
+	}
+
+	private int choose(final double[] logWeights, final int count, final MersenneTwisterFast random) {
+		if (!maximize) return sample(logWeights, count, random);
+		int chosen = -1;
+		for (int k = 0; k < count; ++k) {
+			if (logWeights[k] > Double.NEGATIVE_INFINITY && (chosen < 0 || logWeights[k] > logWeights[chosen])) chosen = k;
+		}
+		return chosen;
+	}
+
+	private static double logSum(final double a, final double b) {
+		if (a == Double.NEGATIVE_INFINITY) return b;
+		if (b == Double.NEGATIVE_INFINITY) return a;
+		return Math.max(a, b) + Math.log1p(Math.exp(-Math.abs(a - b)));
+	}
+
+	/**
+	 * @return an index drawn in proportion to the exponentiated weights, or -1 if every weight is zero
+	 */
+	private static int sample(final double[] logWeights, final int count, final MersenneTwisterFast random) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < count; ++k) max = Math.max(max, logWeights[k]);
+		if (max == Double.NEGATIVE_INFINITY) return -1;
+		double sum = 0.0;
+		for (int k = 0; k < count; ++k) sum += Math.exp(logWeights[k] - max);
+		double u = (random == null ? MathUtils.nextDouble() : random.nextDouble()) * sum;
+		int chosen = -1;
+		for (int k = 0; k < count && u >= 0.0; ++k) {
+			if (logWeights[k] == Double.NEGATIVE_INFINITY) continue;
+			chosen = k;
+			u -= Math.exp(logWeights[k] - max);
+		}
+		return chosen;
+	}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * HostMappingOperator.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import org.ithinktree.becky.xml.HostMappingOperatorParser;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.inference.operators.GibbsOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+
+/**
+ * Draws the hosts of all internal symbiont nodes at once from their joint conditional distribution,
+ * given the node heights and the hosts of the tips, by forward-filtering backward-sampling.
+ * The moves are exact for SimpleCophylogenyModel and its subclasses and are always accepted,
+ * but each filters the whole symbiont tree.
+ *
+ * @see HostMappingFilter
+ * @author Arman D. Bilge
+ *
+ */
+public class HostMappingOperator extends SimpleMCMCOperator implements GibbsOperator {
+
+	private final MutableTree symbiontTree;
+	private final CophylogenyLikelihood cophylogenyLikelihood;
+	private final HostMappingFilter filter;
+
+	private final NodeRef[][] candidates;
+	private final double[][] partials;
+	private final NodeRef[] postorder;
+	private final NodeRef[] mapping;
+
+	public HostMappingOperator(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final double weight) {
+		this.symbiontTree = symbiontTree;
+		this.cophylogenyLikelihood = cophylogenyLikelihood;
+		filter = new HostMappingFilter(hostTree, symbiontTree, (SimpleCophylogenyModel) cophylogenyLikelihood.getCophylogenyModel(), cophylogenyLikelihood.getBranchRates(), cophylogenyLikelihood.getHostTreeIndex());
+		candidates = new NodeRef[symbiontTree.getNodeCount()][];
+		partials = new double[symbiontTree.getNodeCount()][];
+		postorder = new NodeRef[symbiontTree.getNodeCount()];
+		mapping = new NodeRef[symbiontTree.getNodeCount()];
+		setWeight(weight);
+	}
+
+	@Override
+	public String getPerformanceSuggestion() {
+		return "No performance suggestion";
+	}
+
+	@Override
+	public String getOperatorName() {
+		return HostMappingOperatorParser.HOST_MAPPING_OPERATOR + "(" + symbiontTree.getId() + ")";
+	}
+
+	@Override
+	public int getStepCount() {
+		return 1;
+	}
+
+	@Override
+	public double doOperation() throws OperatorFailedException {
+
+		filter.fillPostorder(postorder);
+		for (final NodeRef node : postorder) {
+			if (symbiontTree.isExternal(node))
+				filter.filterTip(node, cophylogenyLikelihood.getStatesForNode(node), candidates, partials);
+			else
+				filter.filterNode(node, candidates, partials);
+		}
+		if (!filter.sample(cophylogenyLikelihood.getOriginHeight(), candidates, partials, postorder, mapping))
+			throw new OperatorFailedException("No feasible mapping");
+
+		// Every term is recalculated, which also replaces the events reconstructed while filtering
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i) {
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			cophylogenyLikelihood.setStatesForNode(node, mapping[node.getNumber()]);
+		}
+		return 0.0;
+	}
+
+}
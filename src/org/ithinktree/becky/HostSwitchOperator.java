@@ -6,6 +6,7 @@
  */
 package org.ithinktree.becky;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.ithinktree.becky.xml.HostSwitchOperatorParser;
@@ -14,67 +15,158 @@ import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.inference.operators.OperatorFailedException;
-import dr.inference.operators.SimpleMCMCOperator;
 import dr.math.MathUtils;
 
 /**
  * @author Arman D. Bilge
  *
  */
-public class HostSwitchOperator extends SimpleMCMCOperator {
+public class HostSwitchOperator extends AbstractAccountedOperator {
 	
 	protected final Tree hostTree;
 	protected final MutableTree symbiontTree;
 	protected final CophylogenyLikelihood cophylogenyLikelihood;
 	protected final boolean sampleNoHost;
+	protected final boolean feasibleHostsOnly;
+	
+	private final List<NodeRef> feasibleHosts = new ArrayList<NodeRef>();
 	
 	/**
 	 * 
 	 */
 	public HostSwitchOperator(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final boolean sampleNoHost, final double weight) {
+		this(hostTree, symbiontTree, cophylogenyLikelihood, sampleNoHost, false, weight);
+	}
+	
+	/**
+	 * @param feasibleHostsOnly whether to only propose hosts that can give the mapping a finite likelihood
+	 */
+	public HostSwitchOperator(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final boolean sampleNoHost, final boolean feasibleHostsOnly, final double weight) {
+		super(cophylogenyLikelihood);
 		this.hostTree = hostTree;
 		this.symbiontTree = symbiontTree;
 		this.cophylogenyLikelihood = cophylogenyLikelihood;
 		this.sampleNoHost = sampleNoHost;
+		this.feasibleHostsOnly = feasibleHostsOnly;
 		setWeight(weight);
 	}
 
 	@Override
 	public String getPerformanceSuggestion() {
-		return "No performance suggestion";
+		return accounting.getPerformanceSuggestion(getWeight(), null,
+				feasibleHostsOnly || sampleNoHost ? null : "try " + HostSwitchOperatorParser.FEASIBLE_HOSTS_ONLY + "=\"true\"");
 	}
 
 	@Override
 	public String getOperatorName() {
 		return HostSwitchOperatorParser.HOST_SWITCH_OPERATOR + "(" + symbiontTree.getId() + ")";
 	}
-
+	
 	@Override
-	public double doOperation() throws OperatorFailedException {
+	protected double propose() throws OperatorFailedException {
 		
 		final NodeRef node = symbiontTree.getInternalNode(MathUtils.nextInt(symbiontTree.getInternalNodeCount()));
+		if (feasibleHostsOnly) return doFeasibleOperation(node);
 		final double nodeParentHeight = symbiontTree.isRoot(node) ? Double.POSITIVE_INFINITY : symbiontTree.getNodeHeight(symbiontTree.getParent(node));
 		final double nodeChildHeight = Math.max(symbiontTree.getNodeHeight(symbiontTree.getChild(node, 0)), symbiontTree.getNodeHeight(symbiontTree.getChild(node, 1)));
-		final List<NodeRef> hostNodes = CophylogenyModel.Utils.getLineagesInTimeRange(hostTree, nodeParentHeight, nodeChildHeight);
+		final HostTreeIndex hostTreeIndex = cophylogenyLikelihood.getHostTreeIndex();
+		final List<NodeRef> hostNodes = hostTreeIndex.getLineagesInTimeRange(nodeParentHeight, nodeChildHeight);
 		final int i = sampleNoHost ? MathUtils.nextInt(hostNodes.size() + 1) - 1 : MathUtils.nextInt(hostNodes.size());
 		final NodeRef proposedHost = i < 0 ? null : hostNodes.get(i);
 		final NodeRef currentHost = cophylogenyLikelihood.getStatesForNode(node);
 		if ((proposedHost != null && proposedHost.equals(currentHost))
 				|| currentHost == null) throw new OperatorFailedException("No change of state");
 		double hastingsRatio = 1.0;
-		if (!CophylogenyModel.Utils.isContemporaneous(hostTree, proposedHost, symbiontTree.getNodeHeight(node))) {
+		if (!hostTreeIndex.isContemporaneous(proposedHost, symbiontTree.getNodeHeight(node))) {
 		    final double min = Math.max(nodeChildHeight, hostTree.getNodeHeight(proposedHost));
 		    double max = Math.min(nodeParentHeight, hostTree.isRoot(proposedHost) ? Double.POSITIVE_INFINITY : hostTree.getNodeHeight(hostTree.getParent(proposedHost)));
 		    if (Double.isInfinite(max)) max = hostTree.getNodeHeight(proposedHost);
-		    symbiontTree.setNodeHeight(node, MathUtils.nextDouble() * (max - min) + min);
+		    final double height = MathUtils.nextDouble() * (max - min) + min;
+		    // The reverse move could only return to the old height if it has to redraw it too
+		    if (hostTreeIndex.isContemporaneous(currentHost, height)) throw new OperatorFailedException("Irreversible change of state");
+		    symbiontTree.setNodeHeight(node, height);
 		    final double hastingsMin = Math.max(nodeChildHeight, hostTree.getNodeHeight(currentHost));
 		    double hastingsMax = Math.min(nodeParentHeight, hostTree.isRoot(currentHost) ? Double.POSITIVE_INFINITY : hostTree.getNodeHeight(hostTree.getParent(currentHost)));
 		    if (Double.isInfinite(hastingsMax)) hastingsMax = hostTree.getNodeHeight(currentHost);
-		    hastingsRatio = (hastingsMax - hastingsMin) / (max - min);
+		    // The reverse move redraws the height within the current host lineage
+		    hastingsRatio = (max - min) / (hastingsMax - hastingsMin);
 		}
 		cophylogenyLikelihood.setStatesForNode(node, proposedHost);
 		
 		return Math.log(hastingsRatio);
 	}
+	
+	/**
+	 * Proposes a new host only from the feasible ones: those whose lineage overlaps the interval between
+	 * the node's parent and its children, that do not descend from the host of either child and that are
+	 * not ancestors of the host of its parent. The parent of a host tip that both children are on is also
+	 * excluded, as the lineage duplicated on it would have to be lost along the tip. Every other host gives
+	 * the mapping a likelihood of zero.
+	 * <p/>
+	 * The feasible set depends on neither the node's host nor its height, so it is the same for the reverse
+	 * move and choosing the host is symmetric. Only the height may need to be redrawn, within the part of the
+	 * new host lineage that fits between the parent and children, and this is accounted for in the Hastings ratio.
+	 */
+	private double doFeasibleOperation(final NodeRef node) throws OperatorFailedException {
+		
+		final NodeRef currentHost = cophylogenyLikelihood.getStatesForNode(node);
+		if (currentHost == null) throw new OperatorFailedException("No change of state");
+		
+		final HostTreeIndex hostTreeIndex = cophylogenyLikelihood.getHostTreeIndex();
+		final double nodeParentHeight = symbiontTree.isRoot(node) ? cophylogenyLikelihood.getOriginHeight() : symbiontTree.getNodeHeight(symbiontTree.getParent(node));
+		final double nodeChildHeight = Math.max(symbiontTree.getNodeHeight(symbiontTree.getChild(node, 0)), symbiontTree.getNodeHeight(symbiontTree.getChild(node, 1)));
+		final NodeRef parentHost = symbiontTree.isRoot(node) ? null : cophylogenyLikelihood.getStatesForNode(symbiontTree.getParent(node));
+		final NodeRef child1Host = cophylogenyLikelihood.getStatesForNode(symbiontTree.getChild(node, 0));
+		final NodeRef child2Host = cophylogenyLikelihood.getStatesForNode(symbiontTree.getChild(node, 1));
+		
+		feasibleHosts.clear();
+		boolean currentHostFeasible = false;
+		for (final NodeRef host : hostTreeIndex.getLineagesInTimeRange(nodeParentHeight, nodeChildHeight)) {
+			if (getMaxHeight(host, nodeParentHeight) <= getMinHeight(host, nodeChildHeight)
+					|| isProperAncestor(hostTreeIndex, child1Host, host) || isProperAncestor(hostTreeIndex, child2Host, host)
+					|| isProperAncestor(hostTreeIndex, host, parentHost)
+					|| isParentOfSharedTip(host, child1Host, child2Host))
+				continue;
+			if (host.equals(currentHost))
+				currentHostFeasible = true;
+			else
+				feasibleHosts.add(host);
+		}
+		// Without the current host there would be no way back
+		if (!currentHostFeasible || feasibleHosts.isEmpty()) throw new OperatorFailedException("No feasible change of state");
+		
+		final NodeRef proposedHost = feasibleHosts.get(MathUtils.nextInt(feasibleHosts.size()));
+		double logHastingsRatio = 0.0;
+		if (!hostTreeIndex.isContemporaneous(proposedHost, symbiontTree.getNodeHeight(node))) {
+			final double min = getMinHeight(proposedHost, nodeChildHeight);
+			final double max = getMaxHeight(proposedHost, nodeParentHeight);
+			final double height = MathUtils.nextDouble() * (max - min) + min;
+			// The reverse move could only return to the old height if it has to redraw it too
+			if (hostTreeIndex.isContemporaneous(currentHost, height)) throw new OperatorFailedException("Irreversible change of state");
+			symbiontTree.setNodeHeight(node, height);
+			// The height is drawn with density 1 / (max - min), and drawn back within the current host lineage
+			logHastingsRatio = Math.log((max - min) / (getMaxHeight(currentHost, nodeParentHeight) - getMinHeight(currentHost, nodeChildHeight)));
+		}
+		cophylogenyLikelihood.setStatesForNode(node, proposedHost);
+		
+		return logHastingsRatio;
+	}
+	
+	private double getMinHeight(final NodeRef host, final double nodeChildHeight) {
+		return Math.max(nodeChildHeight, hostTree.getNodeHeight(host));
+	}
+	
+	private double getMaxHeight(final NodeRef host, final double nodeParentHeight) {
+		return hostTree.isRoot(host) ? nodeParentHeight : Math.min(nodeParentHeight, hostTree.getNodeHeight(hostTree.getParent(host)));
+	}
+	
+	private boolean isParentOfSharedTip(final NodeRef host, final NodeRef child1Host, final NodeRef child2Host) {
+		return child1Host != null && child1Host.equals(child2Host) && hostTree.isExternal(child1Host)
+				&& host.equals(hostTree.getParent(child1Host));
+	}
+	
+	private static boolean isProperAncestor(final HostTreeIndex hostTreeIndex, final NodeRef a, final NodeRef d) {
+		return a != null && d != null && !a.equals(d) && hostTreeIndex.isAncestor(a, d);
+	}
 
 }
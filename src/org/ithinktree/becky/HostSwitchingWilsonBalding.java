@@ -45,19 +45,28 @@ public class HostSwitchingWilsonBalding extends AbstractTreeOperator {
     private TreeModel tree = null;
     private final CophylogenyLikelihood cophylogenyLikelihood;
     private final int tipCount;
+    private final ProposalAccounting accounting;
+    // Can't extend AbstractAccountedOperator, so delegates to the accounting
+    private final ProposalAccounting.Proposal proposal = new ProposalAccounting.Proposal() {
+        public double propose() throws OperatorFailedException {
+            proposeTree();
+            return logq;
+        }
+    };
 
 
     public HostSwitchingWilsonBalding(TreeModel tree, CophylogenyLikelihood cl, double weight) {
         this.tree = tree;
         cophylogenyLikelihood = cl;
         tipCount = tree.getExternalNodeCount();
+        accounting = new ProposalAccounting(cl);
         setWeight(weight);
     }
 
     public double doOperation() throws OperatorFailedException {
 
 //    	System.err.println("BEFORE: " + Tree.Utils.newick(tree, new TreeTraitProvider[]{cophylogenyLikelihood}));
-        proposeTree();
+        accounting.propose(proposal);
         if (tree.getExternalNodeCount() != tipCount) {
             int newCount = tree.getExternalNodeCount();
             throw new RuntimeException("Lost some tips in modified SPR! (" +
@@ -227,9 +236,23 @@ public class HostSwitchingWilsonBalding extends AbstractTreeOperator {
         return 0.01;
     }
 
+    public void accept(double deviation) {
+        super.accept(deviation);
+        accounting.accepted();
+    }
+
+    public void reject() {
+        super.reject();
+        accounting.rejected();
+    }
+
+    public void reset() {
+        super.reset();
+        accounting.reset();
+    }
+
     public String getPerformanceSuggestion() {
-        // seems like equvivalent code to me :)
-        return "";
+        return accounting.getPerformanceSuggestion(getWeight(), null, "the regrafted node takes the host of its new child, which is often infeasible, so the host switch operators may need more weight");
 
 //        if (MCMCOperator.Utils.getAcceptanceProbability(this) < getMinimumAcceptanceLevel()) {
 //            return "";
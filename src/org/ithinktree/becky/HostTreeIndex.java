@@ -0,0 +1,472 @@
+/**
+ * HostTreeIndex.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+
+package org.ithinktree.becky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ithinktree.becky.CophylogenyModel.Utils.NodalRelationship;
+import org.ithinktree.becky.CophylogenyModel.Utils.Relationship;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+/**
+ * A precomputed index of the topology of a host tree, so that relationships between
+ * host nodes can be determined in constant time instead of by walking the tree.
+ * <p/>
+ * Holds pre- and post-order numberings, node depths and an Euler tour of the tree with a
+ * sparse table for constant time most recent common ancestor queries. It also keeps an epoch
+ * table of sorted node heights so that contemporaneous lineages can be found by binary search.
+ * Both are rebuilt lazily the first time they are queried after {@link #update()} is called.
+ * <p/>
+ * Queries share scratch space, so an index must not be used from more than one thread.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class HostTreeIndex {
+
+	private static final NodalRelationship SELF = new NodalRelationship(Relationship.SELF, 0);
+	private static final NodalRelationship SISTER = new NodalRelationship(Relationship.SISTER, 0);
+	private static final NodalRelationship COUSIN = new NodalRelationship(Relationship.COUSIN, 0);
+
+	private final Tree tree;
+
+	private boolean dirty = true;
+	private boolean epochsDirty = true;
+	private boolean updatedSinceStore = false;
+	private long versions = 0;
+	private long version = 0;
+	private long storedVersion = 0;
+
+	private NodeRef[] nodes;
+	private int[] parents;
+	private int[][] children;
+	private int[] depths;
+	private int[] preorder;
+	private int[] postorder;
+	private NodeRef[] nodesInPreorder;
+
+	// Euler tour for most recent common ancestor queries
+	private int[] eulerTour;
+	private int[] firstOccurrence;
+	private int[][] sparseTable;
+
+	// Epoch table for contemporaneous lineage queries
+	private double[] sortedNodeHeights;
+	private double[] sortedParentHeights;
+	private int[] internalNodesByHeight; // Descending
+	private double[] internalNodeHeights; // Descending
+	private int[] scratch;
+
+	public HostTreeIndex(final Tree tree) {
+		this.tree = tree;
+	}
+
+	public Tree getTree() {
+		return tree;
+	}
+
+	/**
+	 * @return a number identifying the current state of the tree, which changes whenever the tree does
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Signals that the tree has changed and the index must be rebuilt before it is next used.
+	 */
+	public void update() {
+		dirty = true;
+		epochsDirty = true;
+		updatedSinceStore = true;
+		version = ++versions;
+	}
+
+	public void storeState() {
+		updatedSinceStore = false;
+		storedVersion = version;
+	}
+
+	public void restoreState() {
+		// The tree has been restored to a topology we may no longer have indexed
+		if (updatedSinceStore) {
+			dirty = true;
+			epochsDirty = true;
+			version = storedVersion;
+		}
+	}
+
+	private void resolveDirtiness() {
+		if (dirty) {
+			build();
+			dirty = false;
+		}
+	}
+
+	private void build() {
+
+		final int n = tree.getNodeCount();
+		if (nodes == null || nodes.length != n) {
+			nodes = new NodeRef[n];
+			parents = new int[n];
+			children = new int[n][];
+			depths = new int[n];
+			preorder = new int[n];
+			postorder = new int[n];
+			nodesInPreorder = new NodeRef[n];
+			eulerTour = new int[2 * n - 1];
+			firstOccurrence = new int[n];
+			sparseTable = new int[32 - Integer.numberOfLeadingZeros(eulerTour.length)][];
+			for (int k = 0; k < sparseTable.length; ++k)
+				sparseTable[k] = new int[eulerTour.length - (1 << k) + 1];
+		}
+
+		for (int i = 0; i < n; ++i) {
+			final NodeRef node = tree.getNode(i);
+			final int childCount = tree.getChildCount(node);
+			nodes[i] = node;
+			parents[i] = tree.isRoot(node) ? -1 : tree.getParent(node).getNumber();
+			if (children[i] == null || children[i].length != childCount)
+				children[i] = new int[childCount];
+			for (int j = 0; j < childCount; ++j)
+				children[i][j] = tree.getChild(node, j).getNumber();
+		}
+
+		// Iterative depth-first traversal, since host trees can be too deep to recurse
+		final int[] stack = new int[n];
+		final int[] nextChild = new int[n];
+		int top = 0;
+		int pre = 0;
+		int post = 0;
+		int euler = 0;
+		final int root = tree.getRoot().getNumber();
+		stack[top] = root;
+		depths[root] = 0;
+		nodesInPreorder[pre] = nodes[root];
+		preorder[root] = pre++;
+		firstOccurrence[root] = euler;
+		eulerTour[euler++] = root;
+		nextChild[root] = 0;
+		while (top >= 0) {
+			final int node = stack[top];
+			if (nextChild[node] < children[node].length) {
+				final int child = children[node][nextChild[node]++];
+				stack[++top] = child;
+				depths[child] = depths[node] + 1;
+				nodesInPreorder[pre] = nodes[child];
+				preorder[child] = pre++;
+				firstOccurrence[child] = euler;
+				eulerTour[euler++] = child;
+				nextChild[child] = 0;
+			} else {
+				postorder[node] = post++;
+				if (--top >= 0) eulerTour[euler++] = stack[top];
+			}
+		}
+
+		System.arraycopy(eulerTour, 0, sparseTable[0], 0, eulerTour.length);
+		for (int k = 1; k < sparseTable.length; ++k) {
+			final int[] previous = sparseTable[k - 1];
+			final int[] current = sparseTable[k];
+			final int half = 1 << (k - 1);
+			for (int i = 0; i < current.length; ++i)
+				current[i] = shallower(previous[i], previous[i + half]);
+		}
+
+	}
+
+	private void buildEpochs() {
+
+		final int n = nodes.length;
+		final int internalCount = tree.getInternalNodeCount();
+		if (sortedNodeHeights == null || sortedNodeHeights.length != n || internalNodesByHeight.length != internalCount) {
+			sortedNodeHeights = new double[n];
+			sortedParentHeights = new double[n - 1];
+			internalNodesByHeight = new int[internalCount];
+			internalNodeHeights = new double[internalCount];
+			scratch = new int[n];
+		}
+
+		final double[] heights = new double[n];
+		final Integer[] internalNodes = new Integer[internalCount];
+		for (int i = 0, j = 0, k = 0; i < n; ++i) {
+			heights[i] = tree.getNodeHeight(nodes[i]);
+			if (parents[i] != -1) sortedParentHeights[j++] = tree.getNodeHeight(nodes[parents[i]]);
+			if (children[i].length > 0) internalNodes[k++] = i;
+		}
+		System.arraycopy(heights, 0, sortedNodeHeights, 0, n);
+		Arrays.sort(sortedNodeHeights);
+		Arrays.sort(sortedParentHeights);
+
+		Arrays.sort(internalNodes, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(heights[b], heights[a]);
+			}
+		});
+		for (int i = 0; i < internalCount; ++i) {
+			internalNodesByHeight[i] = internalNodes[i];
+			internalNodeHeights[i] = heights[internalNodes[i]];
+		}
+
+	}
+
+	private void resolveEpochs() {
+		resolveDirtiness();
+		if (epochsDirty) {
+			buildEpochs();
+			epochsDirty = false;
+		}
+	}
+
+	/**
+	 * @return the number of leading elements of an ascending array that are less than (or equal to) a value
+	 */
+	private static int countBelow(final double[] ascending, final double value, final boolean inclusive) {
+		int lo = 0;
+		int hi = ascending.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (ascending[mid] < value || (inclusive && ascending[mid] == value))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the number of leading elements of a descending array that are greater than a value
+	 */
+	private static int countAbove(final double[] descending, final double value) {
+		int lo = 0;
+		int hi = descending.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (descending[mid] > value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Counts the lineages present at a height, equivalent to
+	 * {@link CophylogenyModel.Utils#getContemporaneousLineageCount(Tree, double, boolean)}.
+	 * A lineage is counted by the height of its node if approaching from the past,
+	 * or by the height of its parent if approaching from the present.
+	 */
+	public int getContemporaneousLineageCount(final double height, final boolean approachFromPresent) {
+		resolveEpochs();
+		return countBelow(sortedNodeHeights, height, !approachFromPresent) - countBelow(sortedParentHeights, height, !approachFromPresent);
+	}
+
+	public int getContemporaneousLineageCount(final double height) {
+		return getContemporaneousLineageCount(height, false);
+	}
+
+	/**
+	 * Returns the lineages present at a height in pre-order.
+	 * @see CophylogenyModel.Utils#getContemporaneousLineages(Tree, double)
+	 */
+	public List<NodeRef> getContemporaneousLineages(final double height) {
+		return getLineagesInTimeRange(height, height);
+	}
+
+	/**
+	 * Returns the lineages present at any time between two heights in pre-order, equivalent to
+	 * {@link CophylogenyModel.Utils#getLineagesInTimeRange(Tree, double, double)}.
+	 * @param startHeight the older height
+	 * @param stopHeight the younger height
+	 */
+	public List<NodeRef> getLineagesInTimeRange(final double startHeight, final double stopHeight) {
+
+		resolveEpochs();
+
+		// Every lineage other than the root descends from an internal node older than the range
+		int count = 0;
+		final int root = tree.getRoot().getNumber();
+		if (tree.getNodeHeight(nodes[root]) <= startHeight) scratch[count++] = preorder[root];
+		final int l = countAbove(internalNodeHeights, stopHeight);
+		for (int i = 0; i < l; ++i) {
+			for (int c : children[internalNodesByHeight[i]]) {
+				if (tree.getNodeHeight(nodes[c]) <= startHeight) scratch[count++] = preorder[c];
+			}
+		}
+
+		Arrays.sort(scratch, 0, count);
+		final List<NodeRef> lineages = new ArrayList<NodeRef>(count);
+		for (int i = 0; i < count; ++i)
+			lineages.add(nodesInPreorder[scratch[i]]);
+		return lineages;
+
+	}
+
+	private int shallower(final int a, final int b) {
+		return depths[a] <= depths[b] ? a : b;
+	}
+
+	/**
+	 * @return true if a is an ancestor of (or the same as) d
+	 */
+	public boolean isAncestor(final NodeRef a, final NodeRef d) {
+		resolveDirtiness();
+		return isAncestor(a.getNumber(), d.getNumber());
+	}
+
+	private boolean isAncestor(final int a, final int d) {
+		return preorder[a] <= preorder[d] && postorder[d] <= postorder[a];
+	}
+
+	/**
+	 * @return true if a node's lineage spans the given height
+	 * @see CophylogenyModel.Utils#isContemporaneous(Tree, NodeRef, double)
+	 */
+	public boolean isContemporaneous(final NodeRef node, final double height) {
+		resolveDirtiness();
+		final int parent = parents[node.getNumber()];
+		return height >= tree.getNodeHeight(node) && (parent == -1 || tree.getNodeHeight(nodes[parent]) > height);
+	}
+
+	public int getDepth(final NodeRef node) {
+		resolveDirtiness();
+		return depths[node.getNumber()];
+	}
+
+	public int getPreorderIndex(final NodeRef node) {
+		resolveDirtiness();
+		return preorder[node.getNumber()];
+	}
+
+	public int getPostorderIndex(final NodeRef node) {
+		resolveDirtiness();
+		return postorder[node.getNumber()];
+	}
+
+	public NodeRef getMostRecentCommonAncestor(final NodeRef a, final NodeRef b) {
+		resolveDirtiness();
+		return nodes[getMostRecentCommonAncestor(a.getNumber(), b.getNumber())];
+	}
+
+	private int getMostRecentCommonAncestor(final int a, final int b) {
+		int l = firstOccurrence[a];
+		int r = firstOccurrence[b];
+		if (l > r) {
+			final int t = l;
+			l = r;
+			r = t;
+		}
+		final int k = 31 - Integer.numberOfLeadingZeros(r - l + 1);
+		return shallower(sparseTable[k][l], sparseTable[k][r - (1 << k) + 1]);
+	}
+
+	/**
+	 * Determines the relationship between two given nodes, without the lost lineages.
+	 * @see CophylogenyModel.Utils#determineRelationship(Tree, NodeRef, NodeRef)
+	 */
+	public Relationship getRelationship(final NodeRef self, final NodeRef relation) {
+		if (self == null || relation == null)
+			throw new IllegalArgumentException();
+		resolveDirtiness();
+		return getRelationship(self.getNumber(), relation.getNumber());
+	}
+
+	private Relationship getRelationship(final int self, final int relation) {
+		if (self == relation) return Relationship.SELF;
+		if (parents[self] != -1 && parents[self] == parents[relation]) return Relationship.SISTER;
+		if (isAncestor(self, relation)) return Relationship.DESCENDANT;
+		if (isAncestor(relation, self)) return Relationship.ANCESTOR;
+		return Relationship.COUSIN;
+	}
+
+	/**
+	 * @return the number of generations separating an ancestor and a descendant, or 0 otherwise
+	 */
+	public int getGenerations(final NodeRef self, final NodeRef relation) {
+		resolveDirtiness();
+		final int s = self.getNumber();
+		final int r = relation.getNumber();
+		if (isAncestor(s, r) || isAncestor(r, s)) return Math.abs(depths[s] - depths[r]);
+		return 0;
+	}
+
+	/**
+	 * Determines the relationship between two given nodes, equivalent to
+	 * {@link CophylogenyModel.Utils#determineRelationship(Tree, NodeRef, NodeRef)}.
+	 * @param self
+	 * @param relation
+	 * @return
+	 * @throws IllegalArgumentException if either node is null
+	 */
+	public NodalRelationship determineRelationship(final NodeRef self, final NodeRef relation) {
+
+		if (self == null || relation == null)
+			throw new IllegalArgumentException();
+		final int s = self.getNumber();
+		final int r = relation.getNumber();
+		switch (getRelationship(self, relation)) {
+		case SELF: return SELF;
+		case SISTER: return SISTER;
+		case DESCENDANT: return new NodalRelationship(Relationship.DESCENDANT, depths[r] - depths[s], getLostLineages(r, s));
+		case ANCESTOR: return new NodalRelationship(Relationship.ANCESTOR, depths[s] - depths[r], getLostLineages(s, r));
+		default: return COUSIN;
+		}
+
+	}
+
+	/**
+	 * Returns the descendant followed by the sisters of every node strictly between it and its ancestor.
+	 */
+	private NodeRef[] getLostLineages(final int descendant, final int ancestor) {
+
+		int count = 1;
+		for (int n = parents[descendant]; n != ancestor; n = parents[n])
+			count += children[parents[n]].length - 1;
+
+		final NodeRef[] lostLineages = new NodeRef[count];
+		int i = 0;
+		lostLineages[i++] = nodes[descendant];
+		for (int n = parents[descendant]; n != ancestor; n = parents[n])
+			i = addSisters(n, lostLineages, i);
+		return lostLineages;
+
+	}
+
+	private int addSisters(final int n, final NodeRef[] lineages, int i) {
+		for (int c : children[parents[n]])
+			if (c != n) lineages[i++] = nodes[c];
+		return i;
+	}
+
+	/**
+	 * Returns the lost lineages up to a height, inclusive.
+	 * @see CophylogenyModel.Utils#lostLineagesToTime(Tree, NodeRef, double)
+	 */
+	public NodeRef[] lostLineagesToTime(final NodeRef node, final double height) {
+
+		resolveDirtiness();
+		int count = 0;
+		int n = node.getNumber();
+		for (; parents[n] != -1 && tree.getNodeHeight(nodes[parents[n]]) <= height; n = parents[n])
+			count += children[parents[n]].length - 1;
+
+		final NodeRef[] lostLineages = new NodeRef[count];
+		int i = 0;
+		for (n = node.getNumber(); i < count; n = parents[n])
+			i = addSisters(n, lostLineages, i);
+		return lostLineages;
+
+	}
+
+}
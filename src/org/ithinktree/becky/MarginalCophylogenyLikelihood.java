@@ -0,0 +1,167 @@
+/**
+ * MarginalCophylogenyLikelihood.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+
+package org.ithinktree.becky;
+
+import java.util.Arrays;
+
+import org.ithinktree.becky.xml.CophylogenyLikelihoodParser;
+
+import dr.evolution.tree.BranchRates;
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
+
+/**
+ * A likelihood function for cophylogenetic processes that sums over the hosts of every internal symbiont node,
+ * so only the hosts of the tips are part of the state. The hosts of internal nodes are drawn from their
+ * conditional distribution only when asked for, such as when they are logged through the tree trait. They are
+ * drawn from a stream of their own, seeded from the run seed, so that how often they are logged and by which
+ * loggers has no effect on the chain.
+ * <p/>
+ * The partials of each subtree are cached by node as for the mapped likelihood, and only the changed nodes
+ * and their ancestors are filtered again, each at a cost cubic in the number of contemporaneous host lineages.
+ *
+ * @see HostMappingFilter
+ * @author Arman D. Bilge
+ *
+ */
+@SuppressWarnings("serial")
+public class MarginalCophylogenyLikelihood extends CophylogenyLikelihood {
+
+	private final MutableTree symbiontTree;
+	private final SimpleCophylogenyModel cophylogenyModel;
+	private final HostMappingFilter filter;
+
+	// Two buffers of candidates and partials per node, of which current tells the one in use
+	private final NodeRef[][][] candidateBuffers;
+	private final double[][][] partialBuffers;
+	private final NodeRef[][] candidates;
+	private final double[][] partials;
+	private final int[] current;
+	private final int[] storedCurrent;
+	private final boolean[] flipped;
+
+	private final boolean[] updateMapping;
+	private final boolean[] storedUpdateMapping;
+
+	private final NodeRef[] postorder;
+	private final NodeRef[] mapping;
+	private boolean mappingKnown = false;
+	private final MersenneTwisterFast random = new MersenneTwisterFast(MathUtils.getSeed());
+
+	public MarginalCophylogenyLikelihood(final Tree hostTree, final MutableTree symbiontTree, final SimpleCophylogenyModel cophylogenyModel, final BranchRates branchRates, final Parameter originHeight, final String reconstructionTagName, final String id) {
+
+		super(CophylogenyLikelihoodParser.COPHYLOGENY_LIKELIHOOD, hostTree, symbiontTree, cophylogenyModel, branchRates, originHeight, reconstructionTagName);
+		setId(id);
+
+		this.symbiontTree = symbiontTree;
+		this.cophylogenyModel = cophylogenyModel;
+		filter = new HostMappingFilter(hostTree, symbiontTree, cophylogenyModel, branchRates, getHostTreeIndex());
+
+		final int nodeCount = symbiontTree.getNodeCount();
+		candidateBuffers = new NodeRef[2][nodeCount][];
+		partialBuffers = new double[2][nodeCount][];
+		candidates = new NodeRef[nodeCount][];
+		partials = new double[nodeCount][];
+		current = new int[nodeCount];
+		storedCurrent = new int[nodeCount];
+		flipped = new boolean[nodeCount];
+		updateMapping = new boolean[nodeCount];
+		storedUpdateMapping = new boolean[nodeCount];
+		Arrays.fill(updateMapping, true);
+		postorder = new NodeRef[nodeCount];
+		mapping = new NodeRef[nodeCount];
+
+	}
+
+	@Override
+	protected double calculateLogLikelihood() {
+
+		cophylogenyModel.updateVariables();
+		filter.fillPostorder(postorder);
+		for (final NodeRef node : postorder) {
+			final int i = node.getNumber();
+			if (!updateMapping[i]) continue;
+			// Keep the stored buffer intact
+			if (!flipped[i]) {
+				current[i] = 1 - current[i];
+				flipped[i] = true;
+				candidates[i] = candidateBuffers[current[i]][i];
+				partials[i] = partialBuffers[current[i]][i];
+			}
+			if (symbiontTree.isExternal(node))
+				filter.filterTip(node, super.getStatesForNode(node), candidates, partials);
+			else
+				filter.filterNode(node, candidates, partials);
+			candidateBuffers[current[i]][i] = candidates[i];
+			partialBuffers[current[i]][i] = partials[i];
+			updateMapping[i] = false;
+		}
+		mappingKnown = false;
+		return filter.calculateLogLikelihood(getOriginHeight(), candidates, partials);
+
+	}
+
+	/**
+	 * The hosts of internal nodes are drawn together from their conditional distribution
+	 * the first time one is asked for in each state.
+	 */
+	@Override
+	public NodeRef getStatesForNode(final NodeRef node) {
+
+		if (symbiontTree.isExternal(node)) return super.getStatesForNode(node);
+		if (!mappingKnown) {
+			filter.fillPostorder(postorder); // The tree may have been restored since the last calculation
+			if (getLogLikelihood() == Double.NEGATIVE_INFINITY || !filter.sample(getOriginHeight(), candidates, partials, postorder, mapping, random))
+				Arrays.fill(mapping, null);
+			mappingKnown = true;
+		}
+		return mapping[node.getNumber()];
+
+	}
+
+	@Override
+	protected void updateNodeAndAncestors(NodeRef node) {
+		super.updateNodeAndAncestors(node);
+		while (node != null && !updateMapping[node.getNumber()]) {
+			updateMapping[node.getNumber()] = true;
+			node = symbiontTree.getParent(node);
+		}
+	}
+
+	@Override
+	protected void updateAllNodes() {
+		super.updateAllNodes();
+		Arrays.fill(updateMapping, true);
+	}
+
+	@Override
+	protected void storeState() {
+		super.storeState();
+		System.arraycopy(current, 0, storedCurrent, 0, current.length);
+		System.arraycopy(updateMapping, 0, storedUpdateMapping, 0, updateMapping.length);
+		Arrays.fill(flipped, false);
+	}
+
+	@Override
+	protected void restoreState() {
+		super.restoreState();
+		System.arraycopy(storedCurrent, 0, current, 0, current.length);
+		System.arraycopy(storedUpdateMapping, 0, updateMapping, 0, updateMapping.length);
+		Arrays.fill(flipped, false);
+		for (int i = 0; i < current.length; ++i) {
+			candidates[i] = candidateBuffers[current[i]][i];
+			partials[i] = partialBuffers[current[i]][i];
+		}
+		mappingKnown = false;
+	}
+
+}
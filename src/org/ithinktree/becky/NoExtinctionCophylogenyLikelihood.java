@@ -0,0 +1,104 @@
+/**
+ * NoExtinctionCophylogenyLikelihood.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+
+package org.ithinktree.becky;
+
+import dr.evolution.tree.BranchRates;
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.inference.model.Model;
+
+/**
+ * A cheap approximation to a cophylogeny likelihood, for screening proposals before the full likelihood is calculated.
+ * Each node uses the likelihood assuming no extinctions, so losses need not be integrated over, and only a node whose
+ * mapping cannot be explained without a loss falls back to its full term. The approximation is therefore positive
+ * wherever the full likelihood is, as delayed acceptance requires.
+ * <p/>
+ * The mapping is read from the wrapped likelihood, and the events reconstructed along the way are kept by a model
+ * of its own, so the wrapped likelihood is never disturbed. Its state is not stored and restored by the chain, as it is
+ * not part of the posterior, but by the operator that uses it.
+ *
+ * @see DelayedAcceptanceOperator
+ * @author Arman D. Bilge
+ *
+ */
+@SuppressWarnings("serial")
+public class NoExtinctionCophylogenyLikelihood extends CophylogenyLikelihood {
+
+	private final CophylogenyLikelihood cophylogenyLikelihood;
+	private final NoExtinctionModel cophylogenyModel;
+
+	public NoExtinctionCophylogenyLikelihood(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood) {
+		this(hostTree, symbiontTree, cophylogenyLikelihood, new NoExtinctionModel((SimpleCophylogenyModel) cophylogenyLikelihood.getCophylogenyModel()));
+	}
+
+	private NoExtinctionCophylogenyLikelihood(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood, final NoExtinctionModel cophylogenyModel) {
+		super(cophylogenyLikelihood.getModelName(), hostTree, symbiontTree, cophylogenyModel, cophylogenyLikelihood.getBranchRates(), cophylogenyLikelihood.getOriginHeightParameter(), cophylogenyLikelihood.getModelName());
+		this.cophylogenyLikelihood = cophylogenyLikelihood;
+		this.cophylogenyModel = cophylogenyModel;
+		// Only listened to, so that storing this likelihood never stores the wrapped one
+		cophylogenyLikelihood.addModelListener(this);
+	}
+
+	public CophylogenyLikelihood getCophylogenyLikelihood() {
+		return cophylogenyLikelihood;
+	}
+
+	@Override
+	public NodeRef getStatesForNode(final NodeRef node) {
+		return cophylogenyLikelihood.getStatesForNode(node);
+	}
+
+	@Override
+	public void setStatesForNode(final NodeRef node, final NodeRef state) {
+		cophylogenyLikelihood.setStatesForNode(node, state);
+	}
+
+	@Override
+	protected void handleModelChangedEvent(final Model model, final Object object, final int index) {
+		if (model == cophylogenyLikelihood) {
+			// Anything else it passes on is a variable we listen to ourselves
+			if (object instanceof NodeRef) updateNodeAndAncestors((NodeRef) object);
+		} else {
+			super.handleModelChangedEvent(model, object, index);
+		}
+	}
+
+	@Override
+	protected void storeState() {
+		super.storeState();
+		cophylogenyModel.storeState();
+	}
+
+	@Override
+	protected void restoreState() {
+		super.restoreState();
+		cophylogenyModel.restoreState();
+	}
+
+	/**
+	 * Shares the rates of the wrapped model, but reconstructs its own events.
+	 */
+	private static final class NoExtinctionModel extends SimpleCophylogenyModel {
+
+		public NoExtinctionModel(final SimpleCophylogenyModel cophylogenyModel) {
+			super(cophylogenyModel.duplicationRateParameter, cophylogenyModel.hostSwitchRateParameter, cophylogenyModel.lossRateParameter, cophylogenyModel.getUnits());
+		}
+
+		@Override
+		public double calculateNodeLogLikelihood(final MutableTree symbiontTree, final NodeRef self,
+				final NodeRef child1, final NodeRef child2, final Tree hostTree, final NodeRef selfHost,
+				final NodeRef child1Host, final NodeRef child2Host, final BranchRates branchRates) {
+			final double logL = calculateNodeLogLikelihoodAssumingNoExtinctions(symbiontTree, self, child1, child2, hostTree, selfHost, child1Host, child2Host, branchRates);
+			if (logL != Double.NEGATIVE_INFINITY) return logL;
+			return super.calculateNodeLogLikelihood(symbiontTree, self, child1, child2, hostTree, selfHost, child1Host, child2Host, branchRates);
+		}
+
+	}
+
+}
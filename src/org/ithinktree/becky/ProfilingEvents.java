@@ -0,0 +1,120 @@
+/**
+ * ProfilingEvents.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+/**
+ * Events from the phases of the model, for tying what a profiler sees to what the model was doing:
+ * evaluations of the cophylogeny likelihood and the cases of the mappings they recalculate, the Monte Carlo
+ * loops that estimate the likelihood of no descendants and simulations of coevolution.
+ * <p/>
+ * Events go to a listener named by the becky.eventListener system property, for example
+ * -Dbecky.eventListener=org.ithinktree.becky.ProfilingEvents$PrintingListener. On Java 11 or later,
+ * org.ithinktree.becky.FlightRecorderListener from jfr/, which is built apart from the plugin, commits each one
+ * as a Flight Recorder event. Without a listener ENABLED is false, and since it is a constant the checks guarding
+ * every event are compiled away. Listeners must be thread-safe, as the Monte Carlo loops may run on several threads.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public final class ProfilingEvents {
+
+	public interface Listener {
+
+		/**
+		 * @param nodesRecalculated number of internal symbiont nodes whose terms were recalculated
+		 * @param nodeCount number of internal symbiont nodes
+		 */
+		void likelihoodEvaluated(String likelihoodId, int nodesRecalculated, int nodeCount, double logLikelihood, long durationNanos);
+
+		/**
+		 * @param mappingCase the counter for the case of the model that the node's mapping falls into
+		 */
+		void mappingClassified(int symbiontNode, EvaluationCounters.Counter mappingCase);
+
+		/**
+		 * One estimate of the likelihood of no descendants, which may take several loops.
+		 */
+		void noDescendantsEstimated(int originHost, double originHeight, int iterations, double likelihood, long durationNanos);
+
+		/**
+		 * One loop of survival simulations, on the thread that ran it.
+		 */
+		void survivalSimulated(int originHost, int iterations, int noDescendantCount, long durationNanos);
+
+		/**
+		 * @param attempts number of simulations until one left symbionts
+		 */
+		void coevolutionSimulated(int hostNodeCount, int symbiontNodeCount, int extinctSymbiontCount, int attempts, long durationNanos);
+
+	}
+
+	public static final String LISTENER_PROPERTY = "becky.eventListener";
+
+	private static final Listener listener = createListener();
+	public static final boolean ENABLED = listener != null;
+
+	private ProfilingEvents() {}
+
+	private static Listener createListener() {
+		final String name = System.getProperty(LISTENER_PROPERTY);
+		if (name == null) return null;
+		try {
+			return (Listener) Class.forName(name).newInstance();
+		} catch (Exception e) {
+			System.err.println("Could not create the event listener " + name + ", so no events will be emitted: " + e);
+			return null;
+		}
+	}
+
+	public static void likelihoodEvaluated(final String likelihoodId, final int nodesRecalculated, final int nodeCount, final double logLikelihood, final long durationNanos) {
+		listener.likelihoodEvaluated(likelihoodId, nodesRecalculated, nodeCount, logLikelihood, durationNanos);
+	}
+
+	public static void mappingClassified(final int symbiontNode, final EvaluationCounters.Counter mappingCase) {
+		listener.mappingClassified(symbiontNode, mappingCase);
+	}
+
+	public static void noDescendantsEstimated(final int originHost, final double originHeight, final int iterations, final double likelihood, final long durationNanos) {
+		listener.noDescendantsEstimated(originHost, originHeight, iterations, likelihood, durationNanos);
+	}
+
+	public static void survivalSimulated(final int originHost, final int iterations, final int noDescendantCount, final long durationNanos) {
+		listener.survivalSimulated(originHost, iterations, noDescendantCount, durationNanos);
+	}
+
+	public static void coevolutionSimulated(final int hostNodeCount, final int symbiontNodeCount, final int extinctSymbiontCount, final int attempts, final long durationNanos) {
+		listener.coevolutionSimulated(hostNodeCount, symbiontNodeCount, extinctSymbiontCount, attempts, durationNanos);
+	}
+
+	/**
+	 * Prints every event as a line to standard error.
+	 */
+	public static class PrintingListener implements Listener {
+
+		public synchronized void likelihoodEvaluated(final String likelihoodId, final int nodesRecalculated, final int nodeCount, final double logLikelihood, final long durationNanos) {
+			System.err.println("likelihoodEvaluated\tid=" + likelihoodId + "\tnodesRecalculated=" + nodesRecalculated + "\tnodeCount=" + nodeCount + "\tlogLikelihood=" + logLikelihood + "\tdurationNanos=" + durationNanos);
+		}
+
+		public synchronized void mappingClassified(final int symbiontNode, final EvaluationCounters.Counter mappingCase) {
+			System.err.println("mappingClassified\tnode=" + symbiontNode + "\tcase=" + mappingCase.getName());
+		}
+
+		public synchronized void noDescendantsEstimated(final int originHost, final double originHeight, final int iterations, final double likelihood, final long durationNanos) {
+			System.err.println("noDescendantsEstimated\toriginHost=" + originHost + "\toriginHeight=" + originHeight + "\titerations=" + iterations + "\tlikelihood=" + likelihood + "\tdurationNanos=" + durationNanos);
+		}
+
+		public synchronized void survivalSimulated(final int originHost, final int iterations, final int noDescendantCount, final long durationNanos) {
+			System.err.println("survivalSimulated\tthread=" + Thread.currentThread().getName() + "\toriginHost=" + originHost + "\titerations=" + iterations + "\tnoDescendants=" + noDescendantCount + "\tdurationNanos=" + durationNanos);
+		}
+
+		public synchronized void coevolutionSimulated(final int hostNodeCount, final int symbiontNodeCount, final int extinctSymbiontCount, final int attempts, final long durationNanos) {
+			System.err.println("coevolutionSimulated\thostNodes=" + hostNodeCount + "\tsymbiontNodes=" + symbiontNodeCount + "\textinctSymbionts=" + extinctSymbiontCount + "\tattempts=" + attempts + "\tdurationNanos=" + durationNanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * ProposalAccounting.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky;
+
+import dr.inference.operators.OperatorFailedException;
+
+/**
+ * Accounts for the proposals of an operator: the time spent making them, the time the chain then spends
+ * evaluating them until they are accepted or rejected, how many fail outright and how many are rejected
+ * with a cophylogeny likelihood of zero. Both of the latter are wasted, although a failed proposal costs
+ * no evaluation.
+ * <p/>
+ * An infeasible proposal is only noticed if the chain has calculated the likelihood by the time it rejects,
+ * so none are counted for proposals that the prior or another screen rejects first.
+ *
+ * @see AbstractAccountedOperator
+ * @author Arman D. Bilge
+ *
+ */
+public class ProposalAccounting {
+
+	private final CophylogenyLikelihood cophylogenyLikelihood;
+
+	private int proposalCount = 0;
+	private int failedCount = 0;
+	private int infeasibleCount = 0;
+	private long proposalNanos = 0;
+	private long evaluationNanos = 0;
+
+	private boolean proposed = false;
+	private long proposedAt;
+
+	public ProposalAccounting(final CophylogenyLikelihood cophylogenyLikelihood) {
+		this.cophylogenyLikelihood = cophylogenyLikelihood;
+	}
+
+	/**
+	 * A proposal of an operator that cannot extend AbstractAccountedOperator.
+	 */
+	public interface Proposal {
+		/**
+		 * @return the log Hastings ratio
+		 */
+		double propose() throws OperatorFailedException;
+	}
+
+	/**
+	 * Makes a proposal, accounting for it as made or failed.
+	 * @return the log Hastings ratio
+	 */
+	public double propose(final Proposal proposal) throws OperatorFailedException {
+		final long start = System.nanoTime();
+		final double logHastingsRatio;
+		try {
+			logHastingsRatio = proposal.propose();
+		} catch (OperatorFailedException e) {
+			failed(start);
+			throw e;
+		}
+		proposed(start);
+		return logHastingsRatio;
+	}
+
+	/**
+	 * @param start System.nanoTime() when the proposal started
+	 */
+	private void proposed(final long start) {
+		proposedAt = System.nanoTime();
+		proposalNanos += proposedAt - start;
+		++proposalCount;
+		proposed = true;
+	}
+
+	/**
+	 * @param start System.nanoTime() when the proposal started
+	 */
+	private void failed(final long start) {
+		proposalNanos += System.nanoTime() - start;
+		++proposalCount;
+		++failedCount;
+		proposed = false;
+	}
+
+	public void accepted() {
+		if (proposed) evaluationNanos += System.nanoTime() - proposedAt;
+		proposed = false;
+	}
+
+	public void rejected() {
+		if (proposed) {
+			evaluationNanos += System.nanoTime() - proposedAt;
+			if (!cophylogenyLikelihood.isDirty() && cophylogenyLikelihood.getLogLikelihood() == Double.NEGATIVE_INFINITY)
+				++infeasibleCount;
+		}
+		proposed = false;
+	}
+
+	public void reset() {
+		proposalCount = 0;
+		failedCount = 0;
+		infeasibleCount = 0;
+		proposalNanos = 0;
+		evaluationNanos = 0;
+		proposed = false;
+	}
+
+	public int getProposalCount() {
+		return proposalCount;
+	}
+
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	public int getInfeasibleCount() {
+		return infeasibleCount;
+	}
+
+	public long getProposalNanos() {
+		return proposalNanos;
+	}
+
+	public long getEvaluationNanos() {
+		return evaluationNanos;
+	}
+
+	/**
+	 * Reports the failed and infeasible proposals and their cost. If at least half were wasted, it suggests scaling
+	 * the weight by the fraction that were not, along with any operator-specific advice.
+	 *
+	 * @param weight the operator's weight
+	 * @param failedAdvice what to try if many proposals fail, or null
+	 * @param infeasibleAdvice what to try if many proposals are infeasible, or null
+	 */
+	public String getPerformanceSuggestion(final double weight, final String failedAdvice, final String infeasibleAdvice) {
+
+		if (proposalCount == 0) return "No performance suggestion";
+
+		final int evaluatedCount = proposalCount - failedCount;
+		final double failed = (double) failedCount / proposalCount;
+		final double infeasible = (double) infeasibleCount / proposalCount;
+		final StringBuilder suggestion = new StringBuilder(String.format("%.1f%% failed, %.1f%% infeasible, %.2f us per proposal, %.2f us per evaluation",
+				100.0 * failed, 100.0 * infeasible, proposalNanos / 1000.0 / proposalCount, evaluatedCount == 0 ? 0.0 : evaluationNanos / 1000.0 / evaluatedCount));
+
+		final double wasted = failed + infeasible;
+		if (wasted >= 0.5) {
+			suggestion.append(String.format("; try a weight of %.2f instead of %.2f", weight * (1.0 - wasted), weight));
+			if (failed >= 0.25 && failedAdvice != null) suggestion.append("; ").append(failedAdvice);
+			if (infeasible >= 0.25 && infeasibleAdvice != null) suggestion.append("; ").append(infeasibleAdvice);
+		}
+		return suggestion.toString();
+
+	}
+
+}
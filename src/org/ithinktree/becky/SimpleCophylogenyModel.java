@@ -35,6 +35,11 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
     private double duplicationRate;
     private double hostSwitchRate;
     private double lossRate;
+    
+    private static final NodeRef[] NO_LINEAGES = new NodeRef[0];
+    
+    private final ExtinctionProbabilityCache extinctionCache = new ExtinctionProbabilityCache();
+    private boolean extinctionCacheValid = false;
         
     /**
      * 
@@ -62,10 +67,13 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         hostSwitchRate = getHostSwitchRate();
         lossRate = getLossRate();
         overallRate = duplicationRate + hostSwitchRate + lossRate;
+        extinctionCacheValid = hostTreeIndex != null;
+        if (extinctionCacheValid)
+            extinctionCache.validate(duplicationRate, hostSwitchRate, lossRate, hostTreeIndex.getVersion(), hostTreeIndex.getTree().getNodeCount());
         dirty = false;
     }
     
-    protected final double likelihoodEvent(final EventType e, final double t, final double rate) {
+    protected final double likelihoodEvent(final byte e, final double t, final double rate) {
         switch (e) {
         case DUPLICATION: return likelihoodDuplicationAtTime(t, rate);
         case HOST_SWITCH: return likelihoodHostSwitchAtTime(t, rate);
@@ -75,7 +83,7 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         return 0.0;
     }
     
-    protected double getEventRate(EventType e) {
+    protected double getEventRate(final byte e) {
         switch (e) {
         case DUPLICATION: return duplicationRate;
         case HOST_SWITCH: return hostSwitchRate;
@@ -117,77 +125,67 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         return likelihoodEventInTime(t, lossRate, rate);
     }
         
-    protected double likelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, boolean excludeRoot) {
-        
-        double sum = 0.0;
-        final ExtinctionLikelihood[] els = permuteExtinctLineageLikelihoods(tree, lineage, rate);
-        final int l = els.length - (excludeRoot ? 1 : 0);
-        for (int i = 0; i < l; ++i)
-            sum += els[i].getOverallLikelihood();
-        return sum;
-        
+    /**
+     * Calls likelihoodLineageLoss, counting the call and its time if there are counters.
+     */
+    private double countedLikelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, boolean excludeRoot) {
+        if (evaluationCounters == null)
+            return likelihoodLineageLoss(tree, lineage, rate, excludeRoot);
+        final long start = System.nanoTime();
+        final double likelihood = likelihoodLineageLoss(tree, lineage, rate, excludeRoot);
+        evaluationCounters.add(EvaluationCounters.Counter.LINEAGE_LOSS_NANOS, System.nanoTime() - start);
+        evaluationCounters.increment(EvaluationCounters.Counter.LINEAGE_LOSS_CALLS);
+        return likelihood;
     }
     
-    public ExtinctionLikelihood[] permuteExtinctLineageLikelihoods(final Tree tree, final NodeRef lineage, final double rate) {
-        
-        final double length = tree.getBranchLength(lineage);
-        final ExtinctionLikelihood selfEL = new ExtinctionLikelihood(likelihoodLossInTime(length, rate));
+    /**
+     * Calculates the likelihood that a symbiont lineage entering a host lineage at its parent goes extinct
+     * somewhere within the host subtree, summed over every way in which this could happen.
+     * 
+     * @param excludeRoot whether to exclude the loss along the host lineage itself, before it speciates
+     */
+    protected double likelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, boolean excludeRoot) {
         
+        if (!excludeRoot)
+            return likelihoodSubtreeLoss(tree, lineage, rate);
         if (tree.isExternal(lineage))
-            return new ExtinctionLikelihood[]{selfEL};
-        
-        final ExtinctionLikelihood[] child1ELs = permuteExtinctLineageLikelihoods(tree, tree.getChild(lineage, 0), rate);
-        final ExtinctionLikelihood[] child2ELs = permuteExtinctLineageLikelihoods(tree, tree.getChild(lineage, 1), rate);
+            return 0.0;
         
-        final ExtinctionLikelihood[] els = new ExtinctionLikelihood[child1ELs.length * child2ELs.length + 1];
-
-        int i = 0;
-        final double selfNoEvent = likelihoodNoEventsInTime(length, rate);
-        for (ExtinctionLikelihood el1 : child1ELs) {
-            for (ExtinctionLikelihood el2 : child2ELs)
-                els[i++] = el1.createCombination(el2, selfNoEvent);
+        final boolean useCache = isExtinctionCacheable(tree);
+        if (useCache) {
+            final double cached = extinctionCache.get(lineage.getNumber(), true, rate);
+            if (!Double.isNaN(cached)) return cached;
         }
+        final double likelihood = likelihoodNoEventsInTime(tree.getBranchLength(lineage), rate) * likelihoodSubtreeLoss(tree, tree.getChild(lineage, 0), rate) * likelihoodSubtreeLoss(tree, tree.getChild(lineage, 1), rate);
+        if (useCache) extinctionCache.put(lineage.getNumber(), true, rate, likelihood);
+        return likelihood;
         
-        els[i] = selfEL;
-        
-        return els;
     }
     
-    protected final double[] emptyDoubleArray = new double[0];
-    protected class ExtinctionLikelihood {
-        
-        private final double[] eventless, extinct;
-        
-        private ExtinctionLikelihood(double[] eventless, double[] extinct) {
-            this.eventless = eventless;
-            this.extinct = extinct;
-        }
+    private boolean isExtinctionCacheable(final Tree tree) {
+        return extinctionCacheValid && hostTreeIndex.getTree() == tree;
+    }
+    
+    /**
+     * Either the symbiont is lost along the branch above the host node, or it survives to the host
+     * speciation and is then lost within both host subtrees. One value per host node, so linear time.
+     */
+    private double likelihoodSubtreeLoss(final Tree tree, final NodeRef lineage, final double rate) {
         
-        public ExtinctionLikelihood(double d) {
-            this(emptyDoubleArray, new double[]{d});
+        final boolean useCache = isExtinctionCacheable(tree);
+        if (useCache) {
+            final double cached = extinctionCache.get(lineage.getNumber(), false, rate);
+            if (!Double.isNaN(cached)) return cached;
         }
         
-        public double getOverallLikelihood() {
-            double l = 1.0;
-            for (double d : eventless) l *= d;
-            for (double d : extinct) l *= d;
-            return l;
-        }
+        final double length = tree.getBranchLength(lineage);
+        double likelihood = likelihoodLossInTime(length, rate);
+        if (!tree.isExternal(lineage))
+            likelihood += likelihoodNoEventsInTime(length, rate) * likelihoodSubtreeLoss(tree, tree.getChild(lineage, 0), rate) * likelihoodSubtreeLoss(tree, tree.getChild(lineage, 1), rate);
+        if (useCache) extinctionCache.put(lineage.getNumber(), false, rate, likelihood);
+        return likelihood;
         
-        public ExtinctionLikelihood createCombination(final ExtinctionLikelihood other, final double noEvent) {
-            
-            final double[] newEventless = new double[eventless.length + other.eventless.length + 1];
-            final double[] newExtinct = new double[extinct.length + other.extinct.length];
-            System.arraycopy(eventless, 0, newEventless, 0, eventless.length);
-            System.arraycopy(other.eventless, 0, newEventless, eventless.length, other.eventless.length);
-            newEventless[newEventless.length - 1] = noEvent;
-            System.arraycopy(extinct, 0, newExtinct, 0, extinct.length);
-            System.arraycopy(other.extinct, 0, newExtinct, extinct.length, other.extinct.length);
-            
-            return new ExtinctionLikelihood(newEventless, newExtinct);
-        }
     }
-
     
     /**
      * Evaluates an integral
@@ -203,13 +201,20 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         final double lossRate = this.lossRate * rate;
         final double overallRate = this.overallRate * rate;
         return hostSwitchRate * eventRate * (lossRate / overallRate * Math.exp(-overallRate * e) * (b - a + (Math.exp(-overallRate * (l - a)) - Math.exp(-overallRate * (l - b))) / overallRate) -
-                Math.exp(-overallRate * (e + l)) * (Math.exp(overallRate * a) - Math.exp(overallRate * b)) / overallRate * likelihoodLineageLoss(tree, lostLineage, rate, true));
+                Math.exp(-overallRate * (e + l)) * (Math.exp(overallRate * a) - Math.exp(overallRate * b)) / overallRate * countedLikelihoodLineageLoss(tree, lostLineage, rate, true));
     }
 
     protected double likelihoodLossesAlongLineages(final Tree tree, final NodeRef[] lineages, double rate) {
+        return likelihoodLossesAlongLineages(tree, lineages, 0, lineages.length, rate);
+    }
+    
+    /**
+     * Likelihood of losses along the lineages in the range [from, to) of the given array.
+     */
+    protected double likelihoodLossesAlongLineages(final Tree tree, final NodeRef[] lineages, final int from, final int to, double rate) {
         double likelihood = 1.0;
-        for (NodeRef n : lineages)
-            likelihood *= likelihoodLineageLoss(tree, n, rate, false);
+        for (int i = from; i < to; ++i)
+            likelihood *= countedLikelihoodLineageLoss(tree, lineages[i], rate, false);
         return likelihood;
     }
     
@@ -226,6 +231,14 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
      * @return
      */
     protected final double likelihoodHostSwitchEventAndLossInTime(final double start, final double hostSwitchStop, final double eventStop, final double lossStop, final double eventRate, final double rate, final Tree tree, final NodeRef lostLineage, final NodeRef[] originalLineages, final NodeRef[] newHostLineages) {
+        return likelihoodHostSwitchEventAndLossInTime(start, hostSwitchStop, eventStop, lossStop, eventRate, rate, tree, lostLineage, originalLineages, 0, originalLineages.length, newHostLineages, 0, newHostLineages.length);
+    }
+    
+    /**
+     * As above, but taking the lost lineages as ranges [from, to) of the given arrays, so that no copies need to be made.
+     */
+    protected final double likelihoodHostSwitchEventAndLossInTime(final double start, final double hostSwitchStop, final double eventStop, final double lossStop, final double eventRate, final double rate, final Tree tree, final NodeRef lostLineage,
+            final NodeRef[] originalLineages, final int originalFrom, final int originalTo, final NodeRef[] newHostLineages, final int newHostFrom, final int newHostTo) {
         final double e = start - eventStop;
         final double l = start - lossStop;
         final double stop = start - Math.max(hostSwitchStop, Math.max(eventStop, lossStop));
@@ -234,20 +247,21 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         double subHeight;
         double nextHeight = 0.0;
         double nextSubHeight;
-        for (int i = originalLineages.length - 1; nextHeight < stop; --i) {
+        for (int i = originalTo - 1; nextHeight < stop; --i) {
             height = nextHeight;
-            if (i >= 0) nextHeight = Math.min(start - tree.getNodeHeight(tree.getParent(originalLineages[i])), stop);
+            if (i >= originalFrom) nextHeight = Math.min(start - tree.getNodeHeight(tree.getParent(originalLineages[i])), stop);
             else nextHeight = stop;
             nextSubHeight = height;
-            for (int j = newHostLineages.length - 1; nextSubHeight < nextHeight; --j) {
+            for (int j = newHostTo - 1; nextSubHeight < nextHeight; --j) {
                 subHeight = nextSubHeight;
-                if (j >= 0 && tree.getNodeHeight(tree.getParent(newHostLineages[j])) <= start) nextSubHeight = Math.min(start - tree.getNodeHeight(tree.getParent(newHostLineages[j])), nextHeight);
+                final double newHostParentHeight = j >= newHostFrom ? tree.getNodeHeight(tree.getParent(newHostLineages[j])) : Double.POSITIVE_INFINITY;
+                if (newHostParentHeight <= start) nextSubHeight = Math.min(start - newHostParentHeight, nextHeight);
                 else nextSubHeight = nextHeight;
-                int potentialHostCount = (Utils.getContemporaneousLineageCount(tree, nextSubHeight) - 1);
+                int potentialHostCount = (getContemporaneousLineageCount(tree, nextSubHeight) - 1);
                 if (potentialHostCount > 0) {
                 likelihood += likelihoodHostSwitchEventAndLossInTime(subHeight, nextSubHeight, e, l, eventRate, rate, tree, lostLineage) *
-                        likelihoodLossesAlongLineages(tree, Arrays.copyOfRange(originalLineages, i+1, originalLineages.length), rate) *
-                        likelihoodLossesAlongLineages(tree, Arrays.copyOfRange(newHostLineages, 0, j+1), rate) /
+                        likelihoodLossesAlongLineages(tree, originalLineages, i+1, originalTo, rate) *
+                        likelihoodLossesAlongLineages(tree, newHostLineages, newHostFrom, j+1, rate) /
                         potentialHostCount;
                 }
             }
@@ -257,7 +271,9 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         if (lostLineageHeight > hostSwitchStop && !tree.isExternal(lostLineage)) {
             final NodeRef c1 = tree.getChild(lostLineage, 0);
             final NodeRef c2 = tree.getChild(lostLineage, 1);
-            return likelihood + likelihoodNoEventsInTime(tree.getBranchLength(lostLineage), rate) * (likelihoodHostSwitchEventAndLossInTime(lostLineageHeight, hostSwitchStop, eventStop, tree.getNodeHeight(c1), eventRate, rate, tree, c1, originalLineages, newHostLineages) * likelihoodLineageLoss(tree, c2, rate, false) + likelihoodHostSwitchEventAndLossInTime(lostLineageHeight, hostSwitchStop, eventStop, tree.getNodeHeight(c2), eventRate, rate, tree, c2, originalLineages, newHostLineages) * likelihoodLineageLoss(tree, c1, rate, false));
+            return likelihood + likelihoodNoEventsInTime(tree.getBranchLength(lostLineage), rate) *
+                    (likelihoodHostSwitchEventAndLossInTime(lostLineageHeight, hostSwitchStop, eventStop, tree.getNodeHeight(c1), eventRate, rate, tree, c1, originalLineages, originalFrom, originalTo, newHostLineages, newHostFrom, newHostTo) * countedLikelihoodLineageLoss(tree, c2, rate, false) +
+                     likelihoodHostSwitchEventAndLossInTime(lostLineageHeight, hostSwitchStop, eventStop, tree.getNodeHeight(c2), eventRate, rate, tree, c2, originalLineages, originalFrom, originalTo, newHostLineages, newHostFrom, newHostTo) * countedLikelihoodLineageLoss(tree, c1, rate, false));
         } else {
             return likelihood;
         }
@@ -273,8 +289,8 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
         double likelihood = 1.0;
         double sum;
         
-        final NodalRelationship child1Relationship = Utils.determineRelationship(hostTree, selfHost, child1Host);
-        final NodalRelationship child2Relationship = Utils.determineRelationship(hostTree, selfHost, child2Host);
+        final NodalRelationship child1Relationship = determineRelationship(hostTree, selfHost, child1Host);
+        final NodalRelationship child2Relationship = determineRelationship(hostTree, selfHost, child2Host);
         double selfHeight = symbiontTree.getNodeHeight(self);
         final double selfHostHeight = hostTree.getNodeHeight(selfHost);
         final double child1BranchRate = branchRates.getBranchRate(symbiontTree, child1);
@@ -285,32 +301,201 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
 
         
         if (child1Relationship.relationship == Relationship.SELF && child2Relationship.relationship == Relationship.SELF) {
-        	setReconstructedEvents(self, DUPLICATION);
+        	setReconstructedEvent(self, DUPLICATION);
         } else if ((child1Relationship.relationship == Relationship.SELF && (child2Relationship.relationship == Relationship.SISTER || child2Relationship.relationship == Relationship.COUSIN)) || (child2Relationship.relationship == Relationship.SELF && (child1Relationship.relationship == Relationship.SISTER || child1Relationship.relationship == Relationship.COUSIN))) {
-        	setReconstructedEvents(self, HOST_SWITCH);
-        	likelihood /= CophylogenyModel.Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1;
-        } else if (child1Relationship.relationship == Relationship.DESCENDANT && child2Relationship.relationship == Relationship.DESCENDANT && Utils.determineRelationship(hostTree, child1Host, child2Host).relationship == Relationship.SISTER && MachineAccuracy.same(selfHeight, selfHostHeight)) {
-        	setReconstructedEvents(self, NO_EVENT);
+        	setReconstructedEvent(self, HOST_SWITCH);
+        	likelihood /= getContemporaneousLineageCount(hostTree, selfHeight) - 1;
+        } else if (child1Relationship.relationship == Relationship.DESCENDANT && child2Relationship.relationship == Relationship.DESCENDANT && determineRelationship(hostTree, child1Host, child2Host).relationship == Relationship.SISTER && MachineAccuracy.same(selfHeight, selfHostHeight)) {
+        	setReconstructedEvent(self, NO_EVENT);
         } else {
         	return Double.NEGATIVE_INFINITY;
         }
 
         double logLikelihood = Math.log(likelihood);
         
-            sum = 0.0;
-            for (Event e : reconstructedEvents[child1.getNumber()])
-                sum += likelihoodEvent(e.event, symbiontTree.getBranchLength(child1), child1BranchRate) * e.partialLikelihood;
+            sum = likelihoodReconstructedEvent(child1, symbiontTree.getBranchLength(child1), child1BranchRate);
             logLikelihood += Math.log(sum);
         
-            sum = 0.0;
-            for (Event e : reconstructedEvents[child2.getNumber()])
-                sum += likelihoodEvent(e.event, symbiontTree.getBranchLength(child2), child2BranchRate) * e.partialLikelihood;
+            sum = likelihoodReconstructedEvent(child2, symbiontTree.getBranchLength(child2), child2BranchRate);
             logLikelihood += Math.log(sum);
 
         return logLikelihood;
     }
 
     
+    /*
+     * The ways in which a node's host relates to the hosts of its children, as classified by
+     * calculateNodeLogLikelihood. Which one applies depends only on the hosts, the node's height
+     * and the host tree, never on the rates.
+     */
+    private static final byte MAPPING_IMPOSSIBLE = 0;
+    private static final byte MAPPING_DUPLICATION_COSPECIATION_LOSSES = 1;
+    private static final byte MAPPING_COSPECIATION_HOST_SWITCH_LOSS = 2;
+    private static final byte MAPPING_COSPECIATION = 3;
+    private static final byte MAPPING_DUPLICATION_BELOW_HOST = 4;
+    private static final byte MAPPING_DUPLICATION = 5;
+    private static final byte MAPPING_CHILD2_HOST_SWITCH = 6;
+    private static final byte MAPPING_CHILD1_HOST_SWITCH = 7;
+    private static final byte MAPPING_DOUBLE_HOST_SWITCH = 8;
+    private static final byte MAPPING_CHILD2_HOST_SWITCH_CHILD1_LOSSES = 9;
+    private static final byte MAPPING_CHILD1_HOST_SWITCH_CHILD2_LOSSES = 10;
+    
+    /**
+     * The rate-independent part of the likelihood at a symbiont node: its classified mapping and the
+     * host lineages involved. Kept per node and reused while the node's hosts, its height and the host
+     * tree are unchanged, so a proposal that only changes rates just re-evaluates the exponential terms.
+     */
+    private static final class NodeStructure {
+        
+        boolean valid = false;
+        int selfHost;
+        int child1Host;
+        int child2Host;
+        double selfHeight;
+        long hostTreeVersion;
+        
+        byte mapping;
+        double selfHostHeight;
+        NodeRef hostChild;
+        /** Normaliser of a host-switch, the number of other lineages it could have switched to */
+        int potentialHostCount;
+        NodeRef[] child1LostLineages;
+        NodeRef[] child2LostLineages;
+        NodeRef[] child1NewHostLineages;
+        NodeRef[] child2NewHostLineages;
+        NodeRef[] originalHostLineages;
+        
+        boolean matches(final int selfHost, final int child1Host, final int child2Host, final double selfHeight, final long hostTreeVersion) {
+            return valid && this.selfHost == selfHost && this.child1Host == child1Host && this.child2Host == child2Host
+                    && this.selfHeight == selfHeight && this.hostTreeVersion == hostTreeVersion;
+        }
+        
+    }
+    
+    private NodeStructure[] nodeStructures = null;
+    private final NodeStructure uncachedStructure = new NodeStructure();
+    
+    private static int getNumber(final NodeRef node) {
+        return node == null ? CophylogenyLikelihood.NO_HOST : node.getNumber();
+    }
+    
+    /**
+     * Returns the structure of the mapping at a node, classifying it again only if the node's hosts,
+     * its height or the host tree changed since it was last classified.
+     */
+    private NodeStructure getNodeStructure(final MutableTree symbiontTree, final NodeRef self, final Tree hostTree,
+            final NodeRef selfHost, final NodeRef child1Host, final NodeRef child2Host) {
+        
+        final double selfHeight = symbiontTree.getNodeHeight(self);
+        final boolean cacheable = nodeStructures != null && hostTreeIndex != null && hostTreeIndex.getTree() == hostTree;
+        
+        final NodeStructure structure;
+        if (cacheable) {
+            final int i = self.getNumber();
+            if (nodeStructures[i] == null) nodeStructures[i] = new NodeStructure();
+            structure = nodeStructures[i];
+            if (structure.matches(getNumber(selfHost), getNumber(child1Host), getNumber(child2Host), selfHeight, hostTreeIndex.getVersion()))
+                return structure;
+        } else {
+            structure = uncachedStructure;
+        }
+        
+        structure.valid = false;
+        structure.mapping = classifyMapping(structure, hostTree, selfHost, child1Host, child2Host, selfHeight);
+        if (cacheable) {
+            structure.selfHost = getNumber(selfHost);
+            structure.child1Host = getNumber(child1Host);
+            structure.child2Host = getNumber(child2Host);
+            structure.selfHeight = selfHeight;
+            structure.hostTreeVersion = hostTreeIndex.getVersion();
+            structure.valid = true;
+        }
+        return structure;
+        
+    }
+    
+    private static EvaluationCounters.Counter getMappingCounter(final byte mapping) {
+        switch (mapping) {
+        case MAPPING_COSPECIATION: return EvaluationCounters.Counter.COSPECIATIONS;
+        case MAPPING_DUPLICATION_COSPECIATION_LOSSES: return EvaluationCounters.Counter.DUPLICATIONS_THEN_LOSSES;
+        case MAPPING_COSPECIATION_HOST_SWITCH_LOSS: return EvaluationCounters.Counter.COSPECIATIONS_WITH_HOST_SWITCH_LOSS;
+        case MAPPING_DOUBLE_HOST_SWITCH: return EvaluationCounters.Counter.DOUBLE_HOST_SWITCHES;
+        case MAPPING_IMPOSSIBLE: return EvaluationCounters.Counter.INFEASIBLE_MAPPINGS;
+        default: return EvaluationCounters.Counter.OTHER_MAPPINGS;
+        }
+    }
+    
+    /**
+     * Determines which case of the model a node's mapping falls into and fills in the host lineages it needs.
+     */
+    private byte classifyMapping(final NodeStructure structure, final Tree hostTree, final NodeRef selfHost,
+            final NodeRef child1Host, final NodeRef child2Host, final double selfHeight) {
+        
+        final NodalRelationship child1Relationship = determineRelationship(hostTree, selfHost, child1Host);
+        final NodalRelationship child2Relationship = determineRelationship(hostTree, selfHost, child2Host);
+        final double selfHostHeight = hostTree.getNodeHeight(selfHost);
+        structure.selfHostHeight = selfHostHeight;
+        structure.child1LostLineages = child1Relationship.lostLineages;
+        structure.child2LostLineages = child2Relationship.lostLineages;
+        structure.hostChild = null;
+        structure.originalHostLineages = null;
+        structure.child1NewHostLineages = null;
+        structure.child2NewHostLineages = null;
+        
+        // Check if symbiont coexisted temporally with its host
+        if (!CophylogenyModel.Utils.isContemporaneous(hostTree, selfHost, selfHeight))
+            return MAPPING_IMPOSSIBLE;
+        
+        final Relationship r1 = child1Relationship.relationship;
+        final Relationship r2 = child2Relationship.relationship;
+        
+        if (r1 == Relationship.DESCENDANT && r2 == Relationship.DESCENDANT) {
+            
+            NodeRef hostChild = hostTree.getChild(selfHost, 0);
+            final Utils.NodalRelationship nr1 = determineRelationship(hostTree, hostChild, child1Host);
+            final Utils.NodalRelationship nr2 = determineRelationship(hostTree, hostChild, child2Host);
+            if (nr1.relationship == nr2.relationship || (nr1.relationship == Relationship.SISTER && nr2.relationship == Relationship.COUSIN) || (nr2.relationship == Relationship.SISTER && nr1.relationship == Relationship.COUSIN)) {
+                // Determine along which child lineage the loss(es) happened
+                if (nr1.relationship != Relationship.DESCENDANT)
+                    hostChild = hostTree.getChild(selfHost, 1);
+                structure.hostChild = hostChild;
+                if (!MachineAccuracy.same(selfHeight, selfHostHeight))
+                    return MAPPING_DUPLICATION_COSPECIATION_LOSSES;
+                // Both children were on the same original host lineage
+                structure.originalHostLineages = lostLineagesToTime(hostTree, hostChild, selfHeight);
+                return MAPPING_COSPECIATION_HOST_SWITCH_LOSS;
+            }
+            return MachineAccuracy.same(selfHeight, selfHostHeight) ? MAPPING_COSPECIATION : MAPPING_DUPLICATION_BELOW_HOST;
+            
+        } else if ((r1 == Relationship.SELF || r1 == Relationship.DESCENDANT) && (r2 == Relationship.SELF || r2 == Relationship.DESCENDANT)) {
+            // && they are not *both* descendants, but accounted for already above
+            return MAPPING_DUPLICATION;
+        }
+        
+        final boolean child1Switched = r1 == Relationship.COUSIN || r1 == Relationship.SISTER;
+        final boolean child2Switched = r2 == Relationship.COUSIN || r2 == Relationship.SISTER;
+        final byte mapping;
+        if (r1 == Relationship.SELF && child2Switched) {
+            mapping = MAPPING_CHILD2_HOST_SWITCH;
+        } else if (r2 == Relationship.SELF && child1Switched) {
+            mapping = MAPPING_CHILD1_HOST_SWITCH;
+        } else if (child1Switched && child2Switched) {
+            mapping = MAPPING_DOUBLE_HOST_SWITCH;
+        } else if (r1 == Relationship.DESCENDANT && child2Switched) {
+            mapping = MAPPING_CHILD2_HOST_SWITCH_CHILD1_LOSSES;
+        } else if (child1Switched && r2 == Relationship.DESCENDANT) {
+            mapping = MAPPING_CHILD1_HOST_SWITCH_CHILD2_LOSSES;
+        } else { // Everything else is impossible
+            return MAPPING_IMPOSSIBLE;
+        }
+        
+        structure.potentialHostCount = getContemporaneousLineageCount(hostTree, selfHeight) - 1;
+        if (child1Switched) structure.child1NewHostLineages = lostLineagesToTime(hostTree, child1Host, selfHeight);
+        if (child2Switched) structure.child2NewHostLineages = lostLineagesToTime(hostTree, child2Host, selfHeight);
+        return mapping;
+        
+    }
+    
     /**
      * Calculates the probability of a particular cophylogenetic mapping at a
      * node and its children against this model's current state.
@@ -330,245 +515,225 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
                 
                     if (dirty) updateVariables();
         
+                    final NodeStructure structure = getNodeStructure(symbiontTree, self, hostTree, selfHost, child1Host, child2Host);
+                    
                     double likelihood = 1.0;
                     double sum;
                     
-                    final NodalRelationship child1Relationship = Utils.determineRelationship(hostTree, selfHost, child1Host);
-                    final NodalRelationship child2Relationship = Utils.determineRelationship(hostTree, selfHost, child2Host);
-                    double selfHeight = symbiontTree.getNodeHeight(self);
-                    final double selfHostHeight = hostTree.getNodeHeight(selfHost);
+                    final double selfHeight = symbiontTree.getNodeHeight(self);
+                    final double selfHostHeight = structure.selfHostHeight;
                     final double child1BranchRate = branchRates.getBranchRate(symbiontTree, child1);
                     final double child2BranchRate = branchRates.getBranchRate(symbiontTree, child2);
+                    final NodeRef[] child1LostLineages = structure.child1LostLineages;
+                    final NodeRef[] child2LostLineages = structure.child2LostLineages;
                     
                     boolean calculatedChild1 = false;
                     boolean calculatedChild2 = false;
-                                        
-                    // Check if symbiont coexisted temporally with its host
-                    if (!CophylogenyModel.Utils.isContemporaneous(hostTree, selfHost, selfHeight))
-                        return Double.NEGATIVE_INFINITY;
-                                        
-                    if (child1Relationship.relationship == Relationship.DESCENDANT
-                            && child2Relationship.relationship == Relationship.DESCENDANT) {
-                                                
-                        NodeRef hostChild = hostTree.getChild(selfHost, 0);
-                        final Utils.NodalRelationship nr1 = Utils.determineRelationship(hostTree, hostChild, child1Host);
-                        final Utils.NodalRelationship nr2 = Utils.determineRelationship(hostTree, hostChild, child2Host);
-                        if (nr1.relationship == nr2.relationship || (nr1.relationship == Relationship.SISTER && nr2.relationship == Relationship.COUSIN) || (nr2.relationship == Relationship.SISTER && nr1.relationship == Relationship.COUSIN)) {
-
-                            // Determine along which child lineage the loss(es) happened
-                            if (nr1.relationship != Relationship.DESCENDANT)
-                                hostChild = hostTree.getChild(selfHost, 1);
-                            final double hostChildBranchLength = hostTree.getBranchLength(hostChild);
-                            final double hostChildHeight = hostTree.getNodeHeight(hostChild);
-                            
-                            final double child1Height = symbiontTree.getNodeHeight(child1);
-							final double child2Height = symbiontTree.getNodeHeight(child2);
-
-                            // The duplication occurred at the time of their last common ancestor
-                                 
-                            if (!MachineAccuracy.same(selfHeight, selfHostHeight)) {
-                                // Case 1A: duplication, cospeciation, then losses
- 
-								final double potentialLossLength = (selfHeight - selfHostHeight) + hostChildBranchLength;
-								likelihood *= likelihoodLossInTime(potentialLossLength, child1BranchRate) * likelihoodLossInTime(potentialLossLength, child2BranchRate) * likelihoodLineageLoss(hostTree, hostChild, child1BranchRate, true) * likelihoodLineageLoss(hostTree, hostChild, child2BranchRate, true);
-								if (lossRate == 0.0) assert(likelihood == 0.0);
-								setReconstructedEvents(self, DUPLICATION);
-							} else {
-							
-   								// Case 2: cospeciation, then host-switch and loss
-
-								// All possible lineages along which losses may have occurred
-								final NodeRef[] child1OriginalHostLineages = Utils.lostLineagesToTime(hostTree, hostChild, selfHeight);
-								final NodeRef[] child2OriginalHostLineages = Utils.lostLineagesToTime(hostTree, hostChild, selfHeight);
-								final NodeRef[] child1NewHostLineages = Arrays.copyOfRange(child1Relationship.lostLineages, 1, child1Relationship.lostLineages.length);
-								final NodeRef[] child2NewHostLineages = Arrays.copyOfRange(child2Relationship.lostLineages, 1, child2Relationship.lostLineages.length);
-
-								// Sum over two subcases: child1 lineage made host-switch/loss or child2 made host-switch/loss
-								double case2 = 0.0;
-								double sum2;
-
-								sum = 0.0;
-								for (Event e : reconstructedEvents[child1.getNumber()])
-									sum += likelihoodHostSwitchEventAndLossInTime(selfHeight, child1Height, child1Height, hostChildHeight, getEventRate(e.event), child1BranchRate, hostTree, hostChild, child1OriginalHostLineages, child1NewHostLineages) * e.partialLikelihood;
+                    
+                    if (evaluationCounters != null) evaluationCounters.increment(getMappingCounter(structure.mapping));
+                    if (ProfilingEvents.ENABLED) ProfilingEvents.mappingClassified(self.getNumber(), getMappingCounter(structure.mapping));
+                    
+                    switch (structure.mapping) {
+                    
+                    case MAPPING_DUPLICATION_COSPECIATION_LOSSES: {
+                        // Case 1A: duplication, cospeciation, then losses
+                        final NodeRef hostChild = structure.hostChild;
+                        final double potentialLossLength = (selfHeight - selfHostHeight) + hostTree.getBranchLength(hostChild);
+                        likelihood *= likelihoodLossInTime(potentialLossLength, child1BranchRate) * likelihoodLossInTime(potentialLossLength, child2BranchRate) * countedLikelihoodLineageLoss(hostTree, hostChild, child1BranchRate, true) * countedLikelihoodLineageLoss(hostTree, hostChild, child2BranchRate, true);
+                        if (lossRate == 0.0) assert(likelihood == 0.0);
+                        setReconstructedEvent(self, DUPLICATION);
+                        break;
+                    }
+                    
+                    case MAPPING_COSPECIATION_HOST_SWITCH_LOSS: {
+                        // Case 2: cospeciation, then host-switch and loss
+                        final NodeRef hostChild = structure.hostChild;
+                        final double hostChildHeight = hostTree.getNodeHeight(hostChild);
+                        final double child1Height = symbiontTree.getNodeHeight(child1);
+                        final double child2Height = symbiontTree.getNodeHeight(child2);
+                        // All possible lineages along which losses may have occurred
+                        final NodeRef[] originalHostLineages = structure.originalHostLineages;
+                        // The new host lineages are the lost lineages after the first
+                        final NodeRef[] child1NewHostLineages = child1LostLineages;
+                        final NodeRef[] child2NewHostLineages = child2LostLineages;
 
-								sum2 = 0.0;
-								for (Event e : reconstructedEvents[child2.getNumber()])
-									sum2 += likelihoodEvent(e.event, symbiontTree.getBranchLength(child2), child2BranchRate) * e.partialLikelihood;
+                        // Sum over two subcases: child1 lineage made host-switch/loss or child2 made host-switch/loss
+                        double case2 = 0.0;
+                        double sum2;
 
-								case2 += sum * sum2 * likelihoodLossesAlongLineages(hostTree, child1NewHostLineages, child1BranchRate);
+                        sum = likelihoodHostSwitchEventAndLossInTime(selfHeight, child1Height, child1Height, hostChildHeight, getEventRate(getReconstructedEventType(child1)), child1BranchRate, hostTree, hostChild, originalHostLineages, 0, originalHostLineages.length, child1NewHostLineages, 1, child1NewHostLineages.length);
 
-								sum = 0.0;
-								for (Event e : reconstructedEvents[child2.getNumber()])
-									sum += likelihoodHostSwitchEventAndLossInTime(selfHeight, child2Height, child2Height, hostChildHeight, getEventRate(e.event), child2BranchRate, hostTree, hostChild, child2OriginalHostLineages, child2NewHostLineages) * e.partialLikelihood;
+                        sum2 = likelihoodReconstructedEvent(child2, symbiontTree.getBranchLength(child2), child2BranchRate);
 
-								sum2 = 0.0;
-								for (Event e : reconstructedEvents[child1.getNumber()])
-									sum2 += likelihoodEvent(e.event, symbiontTree.getBranchLength(child1), child1BranchRate) * e.partialLikelihood;
+                        case2 += sum * sum2 * likelihoodLossesAlongLineages(hostTree, child1NewHostLineages, 1, child1NewHostLineages.length, child1BranchRate);
 
-								case2 += sum * sum2 * likelihoodLossesAlongLineages(hostTree, child1NewHostLineages, child2BranchRate);
+                        sum = likelihoodHostSwitchEventAndLossInTime(selfHeight, child2Height, child2Height, hostChildHeight, getEventRate(getReconstructedEventType(child2)), child2BranchRate, hostTree, hostChild, originalHostLineages, 0, originalHostLineages.length, child2NewHostLineages, 1, child2NewHostLineages.length);
 
-								if (lossRate == 0.0) assert(case2 == 0.0);
-								
-								likelihood *= case2;
-								setReconstructedEvents(self, NO_EVENT);
-	                            calculatedChild1 = true;
-	                            calculatedChild2 = true;
+                        sum2 = likelihoodReconstructedEvent(child1, symbiontTree.getBranchLength(child1), child1BranchRate);
 
-							}
-                                                        
-                        } else {
-                            
-                            if (MachineAccuracy.same(selfHeight, selfHostHeight)) { // Plain old cospeciation
-                                setReconstructedEvents(self, NO_EVENT);
-                                likelihood *= likelihoodLossesAlongLineages(hostTree, Arrays.copyOfRange(child1Relationship.lostLineages, 1, child1Relationship.lostLineages.length), child1BranchRate);
-                                likelihood *= likelihoodLossesAlongLineages(hostTree, Arrays.copyOfRange(child2Relationship.lostLineages, 1, child2Relationship.lostLineages.length), child2BranchRate);
+                        case2 += sum * sum2 * likelihoodLossesAlongLineages(hostTree, child1NewHostLineages, 1, child1NewHostLineages.length, child2BranchRate);
 
-                            } else {
-                            	setReconstructedEvents(self, new Event[]{DUPLICATION});
-                            	final double likelihoodNoEvent = likelihoodNoEventsInTime(selfHeight - selfHostHeight, branchRates.getBranchRate(symbiontTree, self));
-                            	likelihood *= likelihoodNoEvent * likelihoodNoEvent;
-                                likelihood *= likelihoodLossesAlongLineages(hostTree, child1Relationship.lostLineages, child1BranchRate);
-                                likelihood *= likelihoodLossesAlongLineages(hostTree, child2Relationship.lostLineages, child2BranchRate);
-                             }                          
-                                                        
-                        }
+                        if (lossRate == 0.0) assert(case2 == 0.0);
                         
-                    } else if ((child1Relationship.relationship == Relationship.SELF || child1Relationship.relationship == Relationship.DESCENDANT )
-                            && (child2Relationship.relationship == Relationship.SELF || child2Relationship.relationship == Relationship.DESCENDANT)) {
-                    	 // && they are not *both* descendants, but accounted for already above
-                    	
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1Relationship.lostLineages, child1BranchRate);
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2Relationship.lostLineages, child2BranchRate);
-                    	                        
-                    	setReconstructedEvents(self, DUPLICATION);
-                                                
-                    } else if (child1Relationship.relationship == Relationship.SELF && (child2Relationship.relationship == Relationship.COUSIN || child2Relationship.relationship == Relationship.SISTER)) {
-
-                        // Child2 host-switch event
-                        setReconstructedEvents(self, HOST_SWITCH);
-                        likelihood /= Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1;
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, Utils.lostLineagesToTime(hostTree, child2Host, selfHeight), branchRates.getBranchRate(symbiontTree, child2));
+                        likelihood *= case2;
+                        setReconstructedEvent(self, NO_EVENT);
+                        calculatedChild1 = true;
+                        calculatedChild2 = true;
+                        break;
+                    }
                     
-                    } else if (child2Relationship.relationship == Relationship.SELF && (child1Relationship.relationship == Relationship.COUSIN || child1Relationship.relationship == Relationship.SISTER)) {
+                    case MAPPING_COSPECIATION: // Plain old cospeciation
+                        setReconstructedEvent(self, NO_EVENT);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1LostLineages, 1, child1LostLineages.length, child1BranchRate);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2LostLineages, 1, child2LostLineages.length, child2BranchRate);
+                        break;
                         
-                        // Child1 host-switch event
-                        setReconstructedEvents(self, HOST_SWITCH);
-                        likelihood /= Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1;
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, Utils.lostLineagesToTime(hostTree, child1Host, selfHeight), branchRates.getBranchRate(symbiontTree, child1));
-                        if (lossRate == 0.0 && Utils.lostLineagesToTime(hostTree, child1Host, selfHeight).length > 0) assert(likelihood == 0.0);
+                    case MAPPING_DUPLICATION_BELOW_HOST: {
+                        setReconstructedEvent(self, DUPLICATION);
+                        final double likelihoodNoEvent = likelihoodNoEventsInTime(selfHeight - selfHostHeight, branchRates.getBranchRate(symbiontTree, self));
+                        likelihood *= likelihoodNoEvent * likelihoodNoEvent;
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1LostLineages, child1BranchRate);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2LostLineages, child2BranchRate);
+                        break;
+                    }
                         
-                    } else if ((child1Relationship.relationship == Relationship.COUSIN || child1Relationship.relationship == Relationship.SISTER)
-                            && (child2Relationship.relationship == Relationship.COUSIN || child2Relationship.relationship == Relationship.SISTER)) {
-
+                    case MAPPING_DUPLICATION:
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1LostLineages, child1BranchRate);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2LostLineages, child2BranchRate);
+                        setReconstructedEvent(self, DUPLICATION);
+                        break;
+                    
+                    case MAPPING_CHILD2_HOST_SWITCH:
+                        setReconstructedEvent(self, HOST_SWITCH);
+                        likelihood /= structure.potentialHostCount;
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, structure.child2NewHostLineages, child2BranchRate);
+                        break;
+                    
+                    case MAPPING_CHILD1_HOST_SWITCH:
+                        setReconstructedEvent(self, HOST_SWITCH);
+                        likelihood /= structure.potentialHostCount;
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, structure.child1NewHostLineages, child1BranchRate);
+                        if (lossRate == 0.0 && structure.child1NewHostLineages.length > 0) assert(likelihood == 0.0);
+                        break;
+                    
+                    case MAPPING_DOUBLE_HOST_SWITCH: {
                         // Double host-switch event with a loss: no symbionts left on this host lineage
-                                                
                         final double child1Height = symbiontTree.getNodeHeight(child1);
                         final double child2Height = symbiontTree.getNodeHeight(child2);
                         
-                        final NodeRef[] noLineages = new NodeRef[0];
-                        final NodeRef[] child1NewHostLineages = Utils.lostLineagesToTime(hostTree, child1Host, selfHeight);
-                        final NodeRef[] child2NewHostLineages = Utils.lostLineagesToTime(hostTree, child2Host, selfHeight);
+                        final NodeRef[] child1NewHostLineages = structure.child1NewHostLineages;
+                        final NodeRef[] child2NewHostLineages = structure.child2NewHostLineages;
                         
                         // We definitely know the time of the first host-switch
-                        setReconstructedEvents(self, HOST_SWITCH);
-                        likelihood /= (Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1);
+                        setReconstructedEvent(self, HOST_SWITCH);
+                        likelihood /= structure.potentialHostCount;
                         
                         // Case 1: Child1 lineage host-switched first
                         double case1 = likelihoodLossesAlongLineages(hostTree, child1NewHostLineages, child1BranchRate);
                         // Case 2: Child2 lineage host-switched first
                         double case2 = likelihoodLossesAlongLineages(hostTree, child2NewHostLineages, child2BranchRate);
                         
-                        sum = 0.0;
-                        for (Event e : getReconstructedEvents(child2))
-                            sum += likelihoodHostSwitchEventAndLossInTime(selfHeight, child2Height, child2Height, selfHostHeight, getEventRate(e.event), child2BranchRate, hostTree, selfHost, noLineages, child2NewHostLineages) *
-                                e.partialLikelihood;
+                        sum = likelihoodHostSwitchEventAndLossInTime(selfHeight, child2Height, child2Height, selfHostHeight, getEventRate(getReconstructedEventType(child2)), child2BranchRate, hostTree, selfHost, NO_LINEAGES, 0, 0, child2NewHostLineages, 0, child2NewHostLineages.length);
                         case1 *= sum;
 
-                        sum = 0.0;
-                        for (Event e : getReconstructedEvents(child1))                      
-                            sum += likelihoodHostSwitchEventAndLossInTime(selfHeight, child1Height, child1Height, selfHostHeight, getEventRate(e.event), child1BranchRate, hostTree, selfHost, noLineages, child1NewHostLineages) *
-                                e.partialLikelihood;
+                        sum = likelihoodHostSwitchEventAndLossInTime(selfHeight, child1Height, child1Height, selfHostHeight, getEventRate(getReconstructedEventType(child1)), child1BranchRate, hostTree, selfHost, NO_LINEAGES, 0, 0, child1NewHostLineages, 0, child1NewHostLineages.length);
                         case2 *= sum;
                         
                         likelihood *= case1 + case2;
                                                 
                         calculatedChild1 = true;
                         calculatedChild2 = true;
-                        
-                    } else if (child1Relationship.relationship == Relationship.DESCENDANT
-                            && (child2Relationship.relationship == Relationship.COUSIN || child2Relationship.relationship == Relationship.SISTER)) {
-
-                        // Child2 host-switch and child1 losses
-                        setReconstructedEvents(self, HOST_SWITCH);
-                        likelihood /= (Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1);
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, Utils.lostLineagesToTime(hostTree, child2Host, selfHeight), branchRates.getBranchRate(symbiontTree, child2));
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1Relationship.lostLineages, branchRates.getBranchRate(symbiontTree, child1));
-
-                    } else if ((child1Relationship.relationship == Relationship.COUSIN || child1Relationship.relationship == Relationship.SISTER)
-                            && child2Relationship.relationship == Relationship.DESCENDANT) {
-
-                        // Child1 host-switch and child2 losses 
-                        setReconstructedEvents(self, HOST_SWITCH);
-                        likelihood /= (Utils.getContemporaneousLineageCount(hostTree, selfHeight) - 1);
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, Utils.lostLineagesToTime(hostTree, child1Host, selfHeight), branchRates.getBranchRate(symbiontTree, child1));
-                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2Relationship.lostLineages, branchRates.getBranchRate(symbiontTree, child2));
-
-                    } else { // Everything else is impossible
+                        break;
+                    }
+                    
+                    case MAPPING_CHILD2_HOST_SWITCH_CHILD1_LOSSES:
+                        setReconstructedEvent(self, HOST_SWITCH);
+                        likelihood /= structure.potentialHostCount;
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, structure.child2NewHostLineages, child2BranchRate);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child1LostLineages, child1BranchRate);
+                        break;
+                    
+                    case MAPPING_CHILD1_HOST_SWITCH_CHILD2_LOSSES:
+                        setReconstructedEvent(self, HOST_SWITCH);
+                        likelihood /= structure.potentialHostCount;
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, structure.child1NewHostLineages, child1BranchRate);
+                        likelihood *= likelihoodLossesAlongLineages(hostTree, child2LostLineages, child2BranchRate);
+                        break;
+                    
+                    default: // Everything else is impossible
                         return Double.NEGATIVE_INFINITY;
                     }
 
                     double logLikelihood = Math.log(likelihood);
                     
                     if (!calculatedChild1) {
-                        sum = 0.0;
-                        for (Event e : reconstructedEvents[child1.getNumber()])
-                            sum += likelihoodEvent(e.event, symbiontTree.getBranchLength(child1), child1BranchRate) * e.partialLikelihood;
+                        sum = likelihoodReconstructedEvent(child1, symbiontTree.getBranchLength(child1), child1BranchRate);
                         logLikelihood += Math.log(sum);
                     }
                     
                     if (!calculatedChild2) {
-                        sum = 0.0;
-                        for (Event e : reconstructedEvents[child2.getNumber()])
-                            sum += likelihoodEvent(e.event, symbiontTree.getBranchLength(child2), child2BranchRate) * e.partialLikelihood;
+                        sum = likelihoodReconstructedEvent(child2, symbiontTree.getBranchLength(child2), child2BranchRate);
                         logLikelihood += Math.log(sum);
                     }
                     
                     return logLikelihood;
     }
 
-    protected class Event {
-        public final EventType event;
-        public final double partialLikelihood;
-        public Event(final EventType et, final double pl) {
-            event = et;
-            partialLikelihood = pl;
-        }
-        public Event(final EventType et) {
-            this(et, 1.0);
-        }
+    public enum EventType {
+        DUPLICATION, HOST_SWITCH, LOSS, NO_EVENT;
     }
     
-    protected final Event DUPLICATION = new Event(EventType.DUPLICATION);
-    protected final Event HOST_SWITCH = new Event(EventType.HOST_SWITCH);
-    protected final Event NO_EVENT = new Event(EventType.NO_EVENT);
+    // Event codes, matching the ordinals of EventType
+    protected static final byte DUPLICATION = 0;
+    protected static final byte HOST_SWITCH = 1;
+    protected static final byte LOSS = 2;
+    protected static final byte NO_EVENT = 3;
     
-    public enum EventType {
-        DUPLICATION, HOST_SWITCH, LOSS, NO_EVENT;
+    /** Marks a node whose event has not been reconstructed yet, which has no likelihood */
+    private static final byte UNRECONSTRUCTED = -1;
+    
+    // The event reconstructed on the branch above each node
+    private byte[] eventTypes;
+    private byte[] storedEventTypes;
+    
+    protected void setReconstructedEvent(final NodeRef n, final byte e) {
+        eventTypes[n.getNumber()] = e;
     }
     
-    protected void setReconstructedEvents(NodeRef n, Event...e) {
-        reconstructedEvents[n.getNumber()] = e;
+    protected final byte getReconstructedEventType(final NodeRef n) {
+        return eventTypes[n.getNumber()];
     }
     
-    protected Event[] getReconstructedEvents(NodeRef n) {
-        return reconstructedEvents[n.getNumber()];
+    /**
+     * Calculates the likelihood of the event reconstructed at a node along its branch.
+     */
+    protected final double likelihoodReconstructedEvent(final NodeRef n, final double t, final double rate) {
+        return likelihoodEvent(eventTypes[n.getNumber()], t, rate);
     }
     
-    private Event[][] reconstructedEvents;
     public void initialize(final Tree tree) {
-        reconstructedEvents = new Event[tree.getNodeCount()][];
+        final int nodeCount = tree.getNodeCount();
+        eventTypes = new byte[nodeCount];
+        Arrays.fill(eventTypes, UNRECONSTRUCTED);
+        storedEventTypes = new byte[nodeCount];
+        nodeStructures = new NodeStructure[nodeCount];
         for (int i = 0; i < tree.getExternalNodeCount(); ++i)
-            reconstructedEvents[tree.getExternalNode(i).getNumber()] = new Event[]{NO_EVENT};
+            setReconstructedEvent(tree.getExternalNode(i), NO_EVENT);
+    }
+    
+    // Nodes whose likelihood is reused from a previous evaluation still need their children's events
+    protected void storeState() {
+        super.storeState();
+        extinctionCache.storeState();
+        if (eventTypes != null)
+            System.arraycopy(eventTypes, 0, storedEventTypes, 0, eventTypes.length);
+    }
+    
+    protected void restoreState() {
+        super.restoreState();
+        extinctionCache.restoreState();
+        if (eventTypes != null)
+            System.arraycopy(storedEventTypes, 0, eventTypes, 0, eventTypes.length);
     }
 
 	@Override
@@ -576,12 +741,10 @@ public class SimpleCophylogenyModel extends CophylogenyModel {
 //		if (dirty) updateVariables(); // Should not be needed...
 		double hostRootHeight = hostTree.getNodeHeight(hostTree.getRoot());
 		if (hostRootHeight > originHeight || symbiontTree.getNodeHeight(root) > originHeight) return Double.NEGATIVE_INFINITY;
-		double l = likelihoodLossesAlongLineages(hostTree, CophylogenyModel.Utils.lostLineagesToTime(hostTree, rootHost, originHeight), branchRates.getBranchRate(symbiontTree, root));
-		l *= Math.exp(-hostTree.getNodeCount() / hostRootHeight * (originHeight - hostRootHeight));
-		double sum = 0.0;
-		for (Event e : getReconstructedEvents(root))
-			sum += likelihoodEvent(e.event, originHeight - symbiontTree.getNodeHeight(root), branchRates.getBranchRate(symbiontTree, root));
-		return Math.log(l*sum);
+		final double l = likelihoodLossesAlongLineages(hostTree, lostLineagesToTime(hostTree, rootHost, originHeight), branchRates.getBranchRate(symbiontTree, root));
+		final double sum = likelihoodReconstructedEvent(root, originHeight - symbiontTree.getNodeHeight(root), branchRates.getBranchRate(symbiontTree, root));
+		// Kept in log space, as the exponent grows with the size of the host tree and underflows for thousands of hosts
+		return Math.log(l*sum) - hostTree.getNodeCount() / hostRootHeight * (originHeight - hostRootHeight);
 	}
     
 }
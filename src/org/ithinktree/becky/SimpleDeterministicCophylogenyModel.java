@@ -0,0 +1,85 @@
+/**
+ * SimpleDeterministicCophylogenyModel.java
+ * 
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ * 
+ */
+
+package org.ithinktree.becky;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.inference.model.Parameter;
+
+/**
+ * A SimpleCophylogenyModel whose loss terms are the probabilities that a symbiont lineage leaves
+ * no descendants, accounting for duplications and host-switches below it. These are the same
+ * quantities SimpleStochasticCophylogenyModel estimates by simulation, but solved for numerically
+ * and so free of Monte Carlo noise.
+ * 
+ * @author Arman D. Bilge
+ *
+ */
+@SuppressWarnings("serial")
+public class SimpleDeterministicCophylogenyModel extends SimpleCophylogenyModel {
+
+	private final ExtinctionProbabilitySolver solver;
+	
+	// One solution covers every host lineage, so all of them are cached at once
+	private final ExtinctionProbabilityCache solutions = new ExtinctionProbabilityCache();
+	private boolean solutionsValid = false;
+	private double[] bottom = new double[0];
+	private double[] top = new double[0];
+	
+	public SimpleDeterministicCophylogenyModel(Parameter duplicationRateParameter,
+			Parameter hostSwitchRateParameter, Parameter lossRateParameter, Type units) {
+		this(duplicationRateParameter, hostSwitchRateParameter, lossRateParameter, ExtinctionProbabilitySolver.DEFAULT_STEP_SIZE, units);
+	}
+	
+	public SimpleDeterministicCophylogenyModel(Parameter duplicationRateParameter,
+			Parameter hostSwitchRateParameter, Parameter lossRateParameter, double stepSize, Type units) {
+		super(duplicationRateParameter, hostSwitchRateParameter, lossRateParameter,
+				units);
+		solver = new ExtinctionProbabilitySolver(stepSize);
+	}
+	
+	protected double likelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, boolean excludeRoot) {
+		final boolean useCache = solutionsValid && hostTreeIndex.getTree() == tree;
+		if (useCache) {
+			final double cached = solutions.get(lineage.getNumber(), excludeRoot, rate);
+			if (!Double.isNaN(cached)) return cached;
+		}
+		final int nodeCount = tree.getNodeCount();
+		if (bottom.length != nodeCount) {
+			bottom = new double[nodeCount];
+			top = new double[nodeCount];
+		}
+		solver.solve(tree, rate * getDuplicationRate(), rate * getHostSwitchRate(), rate * getLossRate(), bottom, top);
+		if (useCache) {
+			for (int i = 0; i < nodeCount; ++i) {
+				solutions.put(i, true, rate, bottom[i]);
+				solutions.put(i, false, rate, top[i]);
+			}
+		}
+		// Excluding the host lineage itself, the symbiont starts right at the host speciation
+		return excludeRoot ? bottom[lineage.getNumber()] : top[lineage.getNumber()];
+	}
+	
+	protected void updateVariables() {
+		super.updateVariables();
+		solutionsValid = hostTreeIndex != null;
+		if (solutionsValid)
+			solutions.validate(getDuplicationRate(), getHostSwitchRate(), getLossRate(), hostTreeIndex.getVersion(), hostTreeIndex.getTree().getNodeCount());
+	}
+	
+	protected void storeState() {
+		super.storeState();
+		solutions.storeState();
+	}
+	
+	protected void restoreState() {
+		super.restoreState();
+		solutions.restoreState();
+	}
+	
+}
@@ -8,23 +8,51 @@ import dr.inference.model.Parameter;
 public class SimpleStochasticCophylogenyModel extends SimpleCophylogenyModel {
 
 	protected StochasticLikelihoodNoDescendants mc;
-	
+
 	public SimpleStochasticCophylogenyModel(Parameter duplicationRateParameter,
 			Parameter hostSwitchRateParameter, Parameter lossRateParameter, int monteCarloIterations,
 			Type units) {
+		this(duplicationRateParameter, hostSwitchRateParameter, lossRateParameter, monteCarloIterations, 1, units);
+	}
+
+	public SimpleStochasticCophylogenyModel(Parameter duplicationRateParameter,
+			Parameter hostSwitchRateParameter, Parameter lossRateParameter, int monteCarloIterations,
+			int threadCount, Type units) {
+		this(duplicationRateParameter, hostSwitchRateParameter, lossRateParameter, monteCarloIterations, threadCount, 0.0, monteCarloIterations, units);
+	}
+
+	public SimpleStochasticCophylogenyModel(Parameter duplicationRateParameter,
+			Parameter hostSwitchRateParameter, Parameter lossRateParameter, int monteCarloIterations,
+			int threadCount, double targetRelativeError, int batchSize, Type units) {
 		super(duplicationRateParameter, hostSwitchRateParameter, lossRateParameter,
 				units);
-		mc = new StochasticLikelihoodNoDescendants(this, monteCarloIterations);
+		mc = new StochasticLikelihoodNoDescendants(this, monteCarloIterations, threadCount, targetRelativeError, batchSize);
+	}
+
+	public StochasticLikelihoodNoDescendants getStochasticLikelihoodNoDescendants() {
+		return mc;
 	}
 
+	/**
+	 * Draws a fresh estimate on every call, so no two loss terms share one and their product stays unbiased.
+	 * The estimates of the current state live on in the node terms that the likelihood keeps and restores,
+	 * which is what makes this a pseudo-marginal sampler: a rejected proposal gets its terms back unchanged,
+	 * while everything a proposal recalculates is estimated anew.
+	 */
 	 protected double likelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, boolean excludeRoot) {
+		 final double estimate;
 		 if (excludeRoot) {
-			 return mc.likelihoodNoDescendants(tree, lineage, tree.getNodeHeight(lineage), rate);
+			 estimate = mc.likelihoodNoDescendants(tree, lineage, tree.getNodeHeight(lineage), rate);
 		 } else if (!tree.isRoot(lineage)) {
-			 return mc.likelihoodNoDescendants(tree, lineage, tree.getNodeHeight(tree.getParent(lineage)), rate);
+			 estimate = mc.likelihoodNoDescendants(tree, lineage, tree.getNodeHeight(tree.getParent(lineage)), rate);
 		 } else {
 			 throw new RuntimeException("Not implemented");
 		 }
+		 if (evaluationCounters != null) {
+			 evaluationCounters.increment(EvaluationCounters.Counter.MONTE_CARLO_ESTIMATES);
+			 evaluationCounters.add(EvaluationCounters.Counter.MONTE_CARLO_ITERATIONS, mc.getLastIterationCount());
+		 }
+		 return estimate;
 	 }
-	
+
 }
@@ -1,27 +1,186 @@
 package org.ithinktree.becky;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.ithinktree.becky.tools.CoevolutionSimulator;
 
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
+import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
 
 public class StochasticLikelihoodNoDescendants {
 
 	final CoevolutionSimulator simulator = new CoevolutionSimulator();
 	final SimpleCophylogenyModel cophylogenyModel; // Eventually should be made generic
 	final int iterations;
-	
+	final int threadCount;
+	final double targetRelativeError;
+	final int batchSize;
+
+	private int lastIterationCount = 0;
+
+	// Idle workers end after this long, so a pool that is no longer used holds no threads
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	// One simulator per worker, each with its own random number stream
+	private final CoevolutionSimulator[] simulators;
+	private final ThreadPoolExecutor pool;
+
 	public StochasticLikelihoodNoDescendants(final SimpleCophylogenyModel cophylogenyModel, final int iterations) {
+		this(cophylogenyModel, iterations, 1);
+	}
+
+	/**
+	 * With more than one thread the iterations are split evenly between a fixed pool of workers.
+	 * Worker streams are seeded from the run seed and each worker always simulates the same share
+	 * of the iterations, so for a given number of threads the estimates are reproducible. The workers
+	 * are daemon threads that end once idle for a minute, so a pool that is no longer used needs no teardown.
+	 *
+	 * @param threadCount number of threads to simulate with; 1 simulates sequentially on the calling thread
+	 */
+	public StochasticLikelihoodNoDescendants(final SimpleCophylogenyModel cophylogenyModel, final int iterations, final int threadCount) {
+		this(cophylogenyModel, iterations, threadCount, 0.0, iterations);
+	}
+
+	/**
+	 * In adaptive mode, simulation goes on in batches until the relative standard error of the estimate
+	 * falls to the target, with the given number of iterations as a cap. Easy lineages then finish with
+	 * a fraction of the budget. The stopping rule makes the estimates very slightly biased.
+	 *
+	 * @param iterations number of iterations, or the most to simulate per estimate in adaptive mode
+	 * @param targetRelativeError relative standard error to stop at; 0 always simulates every iteration
+	 * @param batchSize number of iterations between checks of the stopping rule
+	 */
+	public StochasticLikelihoodNoDescendants(final SimpleCophylogenyModel cophylogenyModel, final int iterations, final int threadCount, final double targetRelativeError, final int batchSize) {
 		this.cophylogenyModel = cophylogenyModel;
 		this.iterations = iterations;
+		this.threadCount = Math.max(threadCount, 1);
+		this.targetRelativeError = targetRelativeError;
+		this.batchSize = Math.max(Math.min(batchSize, iterations), 1);
+		if (this.threadCount > 1) {
+			final MersenneTwisterFast seeds = new MersenneTwisterFast(MathUtils.getSeed());
+			simulators = new CoevolutionSimulator[this.threadCount];
+			for (int i = 0; i < simulators.length; ++i)
+				simulators[i] = new CoevolutionSimulator(seeds.nextLong());
+			pool = new ThreadPoolExecutor(this.threadCount, this.threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "stochasticLikelihoodNoDescendants");
+					thread.setDaemon(true); // Never keep BEAST from exiting
+					return thread;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+		} else {
+			simulators = null;
+			pool = null;
+		}
 	}
-	
+
 	public double likelihoodNoDescendants(final Tree hostTree, final NodeRef originHost, final double originHeight, final double rate) {
+		if (!ProfilingEvents.ENABLED) return estimateNoDescendants(hostTree, originHost, originHeight, rate);
+		final long start = System.nanoTime();
+		final double likelihood = estimateNoDescendants(hostTree, originHost, originHeight, rate);
+		ProfilingEvents.noDescendantsEstimated(originHost.getNumber(), originHeight, lastIterationCount, likelihood, System.nanoTime() - start);
+		return likelihood;
+	}
+
+	private double estimateNoDescendants(final Tree hostTree, final NodeRef originHost, final double originHeight, final double rate) {
+		// Once per estimate, however many batches it takes; the pool makes the workers see it
+		if (pool == null) {
+			simulator.prepareSurvival(hostTree);
+		} else {
+			for (final CoevolutionSimulator workerSimulator : simulators) workerSimulator.prepareSurvival(hostTree);
+		}
+
+		if (!isAdaptive()) {
+			lastIterationCount = iterations;
+			return countNoDescendants(iterations, originHost, originHeight, rate) / (double) iterations;
+		}
+
+		int n = 0;
+		int noDescendantCount = 0;
+		do {
+			final int batch = Math.min(batchSize, iterations - n);
+			noDescendantCount += countNoDescendants(batch, originHost, originHeight, rate);
+			n += batch;
+		} while (n < iterations && !isPreciseEnough(noDescendantCount, n));
+		lastIterationCount = n;
+		return noDescendantCount / (double) n;
+	}
+
+	public boolean isAdaptive() {
+		return targetRelativeError > 0.0;
+	}
+
+	/**
+	 * Until some replicates have died out and some have survived, the binomial standard error is zero
+	 * and says nothing, so simulation goes on; otherwise an estimate of exactly 1 would end every
+	 * strongly extinct lineage after one batch.
+	 */
+	private boolean isPreciseEnough(final int noDescendantCount, final int n) {
+		if (noDescendantCount == 0 || noDescendantCount == n) return false; // No idea of the error yet
+		final double p = noDescendantCount / (double) n;
+		return Math.sqrt(p * (1 - p) / n) <= targetRelativeError * p;
+	}
+
+	/**
+	 * @return the number of iterations simulated for the last estimate, which evaluation counters add up
+	 */
+	public int getLastIterationCount() {
+		return lastIterationCount;
+	}
+
+	private int countNoDescendants(final int iterations, final NodeRef originHost, final double originHeight, final double rate) {
+		if (pool == null)
+			return countNoDescendants(simulator, iterations, originHost, originHeight, rate);
+
+		final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(threadCount);
+		for (int i = 0; i < threadCount; ++i) {
+			final CoevolutionSimulator workerSimulator = simulators[i];
+			final int workerIterations = iterations / threadCount + (i < iterations % threadCount ? 1 : 0);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return countNoDescendants(workerSimulator, workerIterations, originHost, originHeight, rate);
+				}
+			});
+		}
+
+		int noDescendantCount = 0;
+		try {
+			for (final Future<Integer> count : pool.invokeAll(tasks))
+				noDescendantCount += count.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return noDescendantCount;
+	}
+
+	private int countNoDescendants(final CoevolutionSimulator simulator, final int iterations, final NodeRef originHost, final double originHeight, final double rate) {
+		final int origin = originHost.getNumber();
+		final double duplicationRate = cophylogenyModel.getDuplicationRate();
+		final double hostSwitchRate = cophylogenyModel.getHostSwitchRate();
+		final double lossRate = cophylogenyModel.getLossRate();
+		final long start = ProfilingEvents.ENABLED ? System.nanoTime() : 0;
 		int noDescendantCount = 0;
 		for (int i = 0; i < iterations; ++i) {
-			if (simulator.simulateCoevolution(hostTree, originHost, originHeight, rate, this.cophylogenyModel, false, 0.0) == null) ++noDescendantCount;
+			if (!simulator.simulateSurvival(origin, originHeight, rate, duplicationRate, hostSwitchRate, lossRate)) ++noDescendantCount;
 		}
-		return noDescendantCount / (double) iterations;
+		if (ProfilingEvents.ENABLED) ProfilingEvents.survivalSimulated(origin, iterations, noDescendantCount, System.nanoTime() - start);
+		return noDescendantCount;
 	}
-	
+
 }
@@ -17,11 +17,16 @@ public class TipHostSwitchOperator extends HostSwitchOperator {
 				weight);
 	}
 
+	@Override
+	public String getPerformanceSuggestion() {
+		return accounting.getPerformanceSuggestion(getWeight(), null, null);
+	}
+
 	public String getOperatorName() {
 		return TipHostSwitchOperatorParser.TIP_HOST_SWITCH_OPERATOR + "(" + symbiontTree.getId() + ")";
 	}
 	
-	public double doOperation() throws OperatorFailedException {
+	protected double propose() throws OperatorFailedException {
 		
 		final NodeRef node = symbiontTree.getExternalNode(MathUtils.nextInt(symbiontTree.getExternalNodeCount()));
 		cophylogenyLikelihood.setStatesForNode(node, hostTree.getExternalNode(MathUtils.nextInt(hostTree.getExternalNodeCount())));
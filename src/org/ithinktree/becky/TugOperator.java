@@ -1,6 +1,5 @@
 package org.ithinktree.becky;
 
-import org.ithinktree.becky.CophylogenyModel.Utils.NodalRelationship;
 import org.ithinktree.becky.CophylogenyModel.Utils.Relationship;
 import org.ithinktree.becky.xml.TugOperatorParser;
 
@@ -8,16 +7,16 @@ import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.inference.operators.OperatorFailedException;
-import dr.inference.operators.SimpleMCMCOperator;
 import dr.math.MathUtils;
 
-public class TugOperator extends SimpleMCMCOperator {
+public class TugOperator extends AbstractAccountedOperator {
 
 	private final MutableTree symbiontTree;
 	private final Tree hostTree;
 	private final CophylogenyLikelihood cophylogenyLikelihood;
 	
 	public TugOperator(final MutableTree symbiontTree, final Tree hostTree, final CophylogenyLikelihood cophylogenyLikelihood, final double weight) {
+		super(cophylogenyLikelihood);
 		this.symbiontTree = symbiontTree;
 		this.hostTree = hostTree;
 		this.cophylogenyLikelihood = cophylogenyLikelihood;
@@ -26,11 +25,11 @@ public class TugOperator extends SimpleMCMCOperator {
 	
 	@Override
 	public String getPerformanceSuggestion() {
-		return "No performance suggestion";
+		return accounting.getPerformanceSuggestion(getWeight(), "few symbiont nodes have both children on their host or both on descendants of it", null);
 	}
-
+	
 	@Override
-	public double doOperation() throws OperatorFailedException {
+	protected double propose() throws OperatorFailedException {
 		
 //		System.err.println("BEFORE: " + Tree.Utils.newick(symbiontTree, new TreeTraitProvider[]{cophylogenyLikelihood}));
 		final NodeRef self = symbiontTree.getInternalNode(MathUtils.nextInt(symbiontTree.getInternalNodeCount()));
@@ -40,11 +39,13 @@ public class TugOperator extends SimpleMCMCOperator {
 		final NodeRef child1Host = cophylogenyLikelihood.getStatesForNode(child1);
 		final NodeRef child2Host = cophylogenyLikelihood.getStatesForNode(child2);
 		if (self == null || child1 == null || child2 == null || symbiontTree.isExternal(child1) || symbiontTree.isExternal(child2)) throw new OperatorFailedException("No change in state");
-		final NodalRelationship rel1 = CophylogenyModel.Utils.determineRelationship(hostTree, selfHost, child1Host);
-		final NodalRelationship rel2 = CophylogenyModel.Utils.determineRelationship(hostTree, selfHost, child2Host);
+		// Only the kind of relationship matters, which the index tells in constant time
+		final HostTreeIndex hostTreeIndex = cophylogenyLikelihood.getHostTreeIndex();
+		final Relationship rel1 = hostTreeIndex.getRelationship(selfHost, child1Host);
+		final Relationship rel2 = hostTreeIndex.getRelationship(selfHost, child2Host);
 		
 		int i = MathUtils.nextInt(2);
-		if (i == 0 && rel1.relationship == Relationship.SELF && rel2.relationship == Relationship.SELF) {
+		if (i == 0 && rel1 == Relationship.SELF && rel2 == Relationship.SELF) {
 			final NodeRef host = cophylogenyLikelihood.getStatesForNode(self);
 			if (hostTree.isExternal(host)) throw new OperatorFailedException("No change in state");
 			final double hostHeight = hostTree.getNodeHeight(host);
@@ -69,7 +70,7 @@ public class TugOperator extends SimpleMCMCOperator {
 
 			return Math.log(range1 * range2 / range3);
 			
-		} else if (i == 1 && rel1.relationship == Relationship.DESCENDANT && rel2.relationship == Relationship.DESCENDANT) {
+		} else if (i == 1 && rel1 == Relationship.DESCENDANT && rel2 == Relationship.DESCENDANT) {
 			final NodeRef host = cophylogenyLikelihood.getStatesForNode(self);
 			final double hostHeight = hostTree.getNodeHeight(host);
 
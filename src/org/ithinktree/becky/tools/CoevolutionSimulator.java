@@ -11,6 +11,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -21,6 +22,7 @@ import org.ithinktree.becky.CophylogenyLikelihood;
 import org.ithinktree.becky.CophylogenyModel;
 import org.ithinktree.becky.CophylogenyModel.Utils;
 import org.ithinktree.becky.NodeRefProvider;
+import org.ithinktree.becky.ProfilingEvents;
 import org.ithinktree.becky.SimpleCophylogenyModel;
 import org.ithinktree.becky.SimpleCophylogenyModel.EventType;
 
@@ -39,13 +41,45 @@ import dr.evolution.util.Taxon;
 import dr.evolution.util.Units;
 import dr.inference.model.Parameter;
 import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
 
 /**
  * @author Arman D. Bilge
  */
 public class CoevolutionSimulator {
 
-	public CoevolutionSimulator() {} // Empty constructor, like the CoalescentSimulator
+	/** Private random number stream, or null to draw from the global one in MathUtils */
+	private final MersenneTwisterFast random;
+	
+	public CoevolutionSimulator() { // Empty constructor, like the CoalescentSimulator
+		random = null;
+	}
+	
+	/**
+	 * Creates a simulator with its own random number stream, independent of MathUtils,
+	 * so that several simulators can run concurrently and reproducibly.
+	 * 
+	 * @param seed seed of the simulator's random number stream
+	 */
+	public CoevolutionSimulator(final long seed) {
+		random = new MersenneTwisterFast(seed);
+	}
+	
+	private double nextDouble() {
+		return random == null ? MathUtils.nextDouble() : random.nextDouble();
+	}
+	
+	private int nextInt(final int n) {
+		return random == null ? MathUtils.nextInt(n) : random.nextInt(n);
+	}
+	
+	private double nextGaussian() {
+		return random == null ? MathUtils.nextGaussian() : random.nextGaussian();
+	}
+	
+	private double nextExponential(final double lambda) {
+		return random == null ? MathUtils.nextExponential(lambda) : -Math.log(1 - random.nextDouble()) / lambda;
+	}
 	
 	/**
 	 * Simulates a random coevolutionary process to generate a valid mapping for the starting tree.
@@ -72,7 +106,7 @@ public class CoevolutionSimulator {
 		    final NodeRef node = symbiontTree.getInternalNode(i);
 		    final List<NodeRef> contemporaneous = new ArrayList<NodeRef>(CophylogenyModel.Utils.getContemporaneousLineages(hostTree, symbiontTree.getNodeHeight(node)));
 		    if (samplingNoHost) contemporaneous.add(null);
-		    cophylogenyLikelihood.setStatesForNode(node, contemporaneous.get(MathUtils.nextInt(contemporaneous.size())));
+		    cophylogenyLikelihood.setStatesForNode(node, contemporaneous.get(nextInt(contemporaneous.size())));
 		}
 		
 		cophylogenyLikelihood.setOriginHeight(hostTree.getNodeHeight(hostTree.getRoot()));
@@ -147,8 +181,11 @@ public class CoevolutionSimulator {
 
 	   public Tree simulateCoevolution(final Tree hostTree, final double originHeight, final double rate, final SimpleCophylogenyModel model, final boolean isRelaxed, final double stdev, final boolean keepExtinctions) {
 	        
+	        final long start = ProfilingEvents.ENABLED ? System.nanoTime() : 0;
+	        int attempts = 0;
 	        SimpleNode root;
 	        do {
+	            ++attempts;
 	            logLikelihood = 0.0;
 	            symbiontCounts = new int[hostTree.getTaxonCount()];
 	            extinctSymbiontCount = 0;
@@ -164,21 +201,24 @@ public class CoevolutionSimulator {
 	                    stdev,
 	                    keepExtinctions);
 	        } while (root == null);
-	        return new SimpleTree(root);
+	        return simulated(hostTree, new SimpleTree(root), attempts, start);
 	    }
 
 	
 	public Tree simulateCoevolution(final Tree hostTree, final double rate, final SimpleCophylogenyModel model, final boolean isRelaxed, final double stdev, final boolean keepExtinctions) {
 		
+		final long start = ProfilingEvents.ENABLED ? System.nanoTime() : 0;
+		int attempts = 0;
 		SimpleNode root;
 		do {
+			++attempts;
 			logLikelihood = 0.0;
 			symbiontCounts = new int[hostTree.getTaxonCount()];
 			extinctSymbiontCount = 0;
 			associations.clear();
 			root = simulateCoevolution(hostTree,
 					hostTree.getRoot(),
-					hostTree.getNodeHeight(hostTree.getRoot()) + MathUtils.nextExponential(hostTree.getNodeCount() / hostTree.getNodeHeight(hostTree.getRoot())),
+					hostTree.getNodeHeight(hostTree.getRoot()) + nextExponential(hostTree.getNodeCount() / hostTree.getNodeHeight(hostTree.getRoot())),
 					rate,
 					model.getDuplicationRate(),
 					model.getHostSwitchRate(),
@@ -187,11 +227,12 @@ public class CoevolutionSimulator {
 					stdev,
 					keepExtinctions);
 		} while (root == null);
-		return new SimpleTree(root);
+		return simulated(hostTree, new SimpleTree(root), attempts, start);
 	}
 	
 	public Tree simulateCoevolution(final Tree hostTree, final NodeRef origin, final double originHeight, final double rate, final SimpleCophylogenyModel model, final boolean isRelaxed, final double stdev) {
 
+		final long start = ProfilingEvents.ENABLED ? System.nanoTime() : 0;
 		symbiontCounts = new int[hostTree.getTaxonCount()];
 		extinctSymbiontCount = 0;
 		associations.clear();
@@ -203,7 +244,13 @@ public class CoevolutionSimulator {
 				model.getHostSwitchRate(),
 				model.getLossRate()
 				);
-		return root == null ? null : new SimpleTree(root);
+		return simulated(hostTree, root == null ? null : new SimpleTree(root), 1, start);
+	}
+	
+	private Tree simulated(final Tree hostTree, final Tree symbiontTree, final int attempts, final long start) {
+		if (ProfilingEvents.ENABLED)
+			ProfilingEvents.coevolutionSimulated(hostTree.getNodeCount(), symbiontTree == null ? 0 : symbiontTree.getNodeCount(), extinctSymbiontCount, attempts, System.nanoTime() - start);
+		return symbiontTree;
 	}
 	
 	private SimpleNode simulateCoevolution(final Tree hostTree, final NodeRef hostNode, final double height, final double rate, final double duplicationRate, final double hostSwitchRate, final double lossRate, final boolean isRelaxed, final double stdev) {
@@ -257,7 +304,7 @@ public class CoevolutionSimulator {
 		final double relaxedRate;
 		if (isRelaxed) {
 			// Random lognormally distributed rate
-			relaxedRate = Math.exp(rate + stdev * MathUtils.nextGaussian());
+			relaxedRate = Math.exp(rate + stdev * nextGaussian());
 		} else {
 			relaxedRate = rate;
 		}
@@ -303,7 +350,7 @@ public class CoevolutionSimulator {
 				if (!hostTree.isRoot(hostNode)) { // Can't host-switch if at the root!
 					List<NodeRef> potentialNewHosts = new ArrayList<NodeRef>(Utils.getContemporaneousLineages(hostTree, eventHeight));
 					if (!potentialNewHosts.remove(hostNode)) throw new RuntimeException("Contemporaneous lineages not working.");
-					newHost = potentialNewHosts.get(MathUtils.nextInt(potentialNewHosts.size()));
+					newHost = potentialNewHosts.get(nextInt(potentialNewHosts.size()));
 					logLikelihood += Math.log(1 / potentialNewHosts.size());
 					child1 = simulateCoevolution(hostTree, newHost,
 							eventHeight, rate, duplicationRate, hostSwitchRate,
@@ -368,7 +415,7 @@ public class CoevolutionSimulator {
 				if (!hostTree.isRoot(hostNode)) { // Can't host-switch if at the root!
 					List<NodeRef> potentialNewHosts = new ArrayList<NodeRef>(Utils.getContemporaneousLineages(hostTree, eventHeight));
 					if (!potentialNewHosts.remove(hostNode)) throw new RuntimeException("Contemporaneous lineages not working.");
-					NodeRef newHost = potentialNewHosts.get(MathUtils.nextInt(potentialNewHosts.size()));
+					NodeRef newHost = potentialNewHosts.get(nextInt(potentialNewHosts.size()));
 					child1 = simulateCoevolution(hostTree, newHost, eventHeight, rate, duplicationRate, hostSwitchRate, lossRate);
 				} else {
 					child1 = null; // Like a host-switch to a totally different tree that we're not following
@@ -394,9 +441,116 @@ public class CoevolutionSimulator {
 		return node;
 	}
 	
+	// Host tree in primitive arrays, for the survival kernel
+	private int[] hostChildren = new int[0];
+	private double[] hostHeights = new double[0];
+	private double[] hostParentHeights = new double[0];
+	// Lineages still to be simulated by the survival kernel
+	private int[] lineageHosts = new int[16];
+	private double[] lineageHeights = new double[16];
+	
+	/**
+	 * Loads the host tree for the survival kernel. Must be called again whenever the host tree changes.
+	 */
+	public void prepareSurvival(final Tree hostTree) {
+		final int nodeCount = hostTree.getNodeCount();
+		if (hostHeights.length != nodeCount) {
+			hostChildren = new int[2 * nodeCount];
+			hostHeights = new double[nodeCount];
+			hostParentHeights = new double[nodeCount];
+		}
+		for (int i = 0; i < nodeCount; ++i) {
+			final NodeRef node = hostTree.getNode(i);
+			hostHeights[i] = hostTree.getNodeHeight(node);
+			hostParentHeights[i] = hostTree.isRoot(node) ? Double.POSITIVE_INFINITY : hostTree.getNodeHeight(hostTree.getParent(node));
+			if (hostTree.isExternal(node)) {
+				hostChildren[2 * i] = -1;
+				hostChildren[2 * i + 1] = -1;
+			} else {
+				hostChildren[2 * i] = hostTree.getChild(node, 0).getNumber();
+				hostChildren[2 * i + 1] = hostTree.getChild(node, 1).getNumber();
+			}
+		}
+	}
+	
+	/**
+	 * Simulates the same process as simulateCoevolution, but only far enough to tell whether a symbiont
+	 * lineage leaves any descendants. Only the live lineages are tracked, and the simulation stops as soon
+	 * as one of them reaches a host tip. The host tree must have been loaded with prepareSurvival.
+	 * 
+	 * @param originHost number of the host node the lineage starts on
+	 * @param originHeight height the lineage starts at
+	 * @return whether any descendant of the lineage survives to the present
+	 */
+	public boolean simulateSurvival(final int originHost, final double originHeight, final double rate, final double duplicationRate, final double hostSwitchRate, final double lossRate) {
+		
+		final double duplicationLambda = rate * duplicationRate;
+		final double hostSwitchLambda = rate * hostSwitchRate;
+		final double lossLambda = rate * lossRate;
+		final double lambda = duplicationLambda + hostSwitchLambda + lossLambda;
+		final double duplicationP = duplicationLambda / lambda;
+		final double hostSwitchP = hostSwitchLambda / lambda + duplicationP;
+		
+		int lineageCount = 0;
+		lineageCount = pushLineage(lineageCount, originHost, originHeight);
+		while (lineageCount > 0) {
+			--lineageCount;
+			final int hostNode = lineageHosts[lineageCount];
+			final double height = lineageHeights[lineageCount];
+			
+			// Same draws, in the same order, as nextPoissonEvent and nextPoissonEventTime
+			final double U = 1 - nextDouble();
+			final int nextEvent = duplicationP >= U ? 0 : hostSwitchP >= U ? 1 : 2;
+			final double eventHeight = height - nextExponential(lambda);
+			
+			final double hostNodeHeight = hostHeights[hostNode];
+			if (hostNodeHeight > eventHeight) {
+				if (hostChildren[2 * hostNode] < 0) return true; // Reached the present
+				// Cospeciation event; the first child is simulated first
+				lineageCount = pushLineage(lineageCount, hostChildren[2 * hostNode + 1], hostNodeHeight);
+				lineageCount = pushLineage(lineageCount, hostChildren[2 * hostNode], hostNodeHeight);
+			} else if (nextEvent == 0) {
+				// Duplication event
+				lineageCount = pushLineage(lineageCount, hostNode, eventHeight);
+				lineageCount = pushLineage(lineageCount, hostNode, eventHeight);
+			} else if (nextEvent == 1) {
+				// Host-switch event
+				lineageCount = pushLineage(lineageCount, hostNode, eventHeight);
+				if (hostParentHeights[hostNode] != Double.POSITIVE_INFINITY) // Can't host-switch if at the root!
+					lineageCount = pushLineage(lineageCount, nextPotentialNewHost(hostNode, eventHeight), eventHeight);
+			} // Otherwise a loss event, and this lineage is gone
+		}
+		return false;
+		
+	}
+	
+	private int pushLineage(final int lineageCount, final int hostNode, final double height) {
+		if (lineageCount == lineageHosts.length) {
+			lineageHosts = Arrays.copyOf(lineageHosts, 2 * lineageCount);
+			lineageHeights = Arrays.copyOf(lineageHeights, 2 * lineageCount);
+		}
+		lineageHosts[lineageCount] = hostNode;
+		lineageHeights[lineageCount] = height;
+		return lineageCount + 1;
+	}
+	
+	/**
+	 * Draws uniformly from the host lineages other than the given one that are contemporaneous with the height.
+	 */
+	private int nextPotentialNewHost(final int hostNode, final double height) {
+		int count = 0;
+		for (int i = 0; i < hostHeights.length; ++i) {
+			if (i != hostNode && height >= hostHeights[i] && hostParentHeights[i] > height) ++count;
+		}
+		int k = nextInt(count);
+		for (int i = 0; ; ++i) {
+			if (i != hostNode && height >= hostHeights[i] && hostParentHeights[i] > height && k-- == 0) return i;
+		}
+	}
+	
 	private final double nextPoissonEventTime(final double...lambdas) {
 		final double lambda = MathUtils.getTotal(lambdas);
-		return MathUtils.nextExponential(lambda);
+		return nextExponential(lambda);
 	}
 	
 	private final int nextPoissonEvent(final double...lambdas) {
@@ -405,7 +559,7 @@ public class CoevolutionSimulator {
 		p[0] = lambdas[0] / lambda;
 		for (int i = 1; i < p.length; ++i)
 			p[i] = lambdas[i] / lambda + p[i - 1];
-		final double U = 1 - MathUtils.nextDouble();
+		final double U = 1 - nextDouble();
 		int i;
 		for (i = 0; i < p.length && p[i] < U; ++i);
 		return i;
@@ -0,0 +1,152 @@
+/**
+ * ReconciliationInitializer.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky.tools;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.HostMappingFilter;
+import org.ithinktree.becky.HostTreeIndex;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+
+/**
+ * Sets a starting mapping and node heights that reconcile the symbiont tree with the host tree, given the hosts of the tips.
+ * <p/>
+ * Each internal symbiont node is first put on the most recent common ancestor of the hosts of its children, which is the
+ * most parsimonious reconciliation in duplications and losses. A node whose children are in both subtrees of that host
+ * cospeciates with it at its height, and every other node is a duplication along its host lineage, spaced evenly with any
+ * other duplications on the same lineage. With a SimpleCophylogenyModel, the most likely mapping for these heights is then
+ * found by dynamic programming.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class ReconciliationInitializer {
+
+	private final Tree hostTree;
+	private final MutableTree symbiontTree;
+	private final CophylogenyLikelihood cophylogenyLikelihood;
+
+	public ReconciliationInitializer(final Tree hostTree, final MutableTree symbiontTree, final CophylogenyLikelihood cophylogenyLikelihood) {
+		this.hostTree = hostTree;
+		this.symbiontTree = symbiontTree;
+		this.cophylogenyLikelihood = cophylogenyLikelihood;
+	}
+
+	/**
+	 * Sets the host of every symbiont tip from an attribute of its taxon naming the host taxon.
+	 * Tips without the attribute are left without a host.
+	 * @throws IllegalArgumentException if a host taxon is not in the host tree
+	 */
+	public void setTipHosts(final String hostAttributeName) {
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i) {
+			final NodeRef node = symbiontTree.getExternalNode(i);
+			final Taxon hostTaxon = (Taxon) symbiontTree.getNodeTaxon(node).getAttribute(hostAttributeName);
+			if (hostTaxon == null) {
+				cophylogenyLikelihood.setStatesForNode(node, null);
+				continue;
+			}
+			final int hostIndex = hostTree.getTaxonIndex(hostTaxon.getId());
+			if (hostIndex == -1)
+				throw new IllegalArgumentException("Host " + hostTaxon.getId() + " of symbiont " + symbiontTree.getNodeTaxon(node).getId() + " is not in the host tree");
+			cophylogenyLikelihood.setStatesForNode(node, hostTree.getExternalNode(hostIndex));
+		}
+	}
+
+	/**
+	 * @param maximumLikelihood whether to improve the parsimonious mapping to the most likely one, if the model allows
+	 * @return the log likelihood of the starting state
+	 */
+	public double initialize(final boolean maximumLikelihood) {
+
+		final HostTreeIndex hostTreeIndex = cophylogenyLikelihood.getHostTreeIndex();
+		final int nodeCount = symbiontTree.getNodeCount();
+		final NodeRef[] postorder = new NodeRef[nodeCount];
+		final NodeRef[] mapping = new NodeRef[nodeCount];
+		final boolean[] duplication = new boolean[nodeCount];
+		final int[] rank = new int[nodeCount];
+		final int[] rankCount = new int[hostTree.getNodeCount()];
+
+		// The symbiont root is kept below the origin
+		final double hostRootHeight = hostTree.getNodeHeight(hostTree.getRoot());
+		if (!(cophylogenyLikelihood.getOriginHeight() > hostRootHeight))
+			cophylogenyLikelihood.setOriginHeight(hostRootHeight > 0.0 ? 1.1 * hostRootHeight : 1.0);
+		final double originHeight = cophylogenyLikelihood.getOriginHeight();
+
+		NodeRef n = symbiontTree.getRoot();
+		for (int i = 0; i < nodeCount; ++i) {
+			n = Tree.Utils.postorderSuccessor(symbiontTree, n);
+			postorder[i] = n;
+		}
+
+		// Parsimonious hosts, and the order of duplications along each host lineage
+		for (final NodeRef node : postorder) {
+			final int i = node.getNumber();
+			if (symbiontTree.isExternal(node)) {
+				mapping[i] = cophylogenyLikelihood.getStatesForNode(node);
+				if (mapping[i] == null) throw new IllegalArgumentException("Every symbiont tip needs a host");
+				continue;
+			}
+			final NodeRef child1 = symbiontTree.getChild(node, 0);
+			final NodeRef child2 = symbiontTree.getChild(node, 1);
+			final NodeRef host = hostTreeIndex.getMostRecentCommonAncestor(mapping[child1.getNumber()], mapping[child2.getNumber()]);
+			mapping[i] = host;
+			duplication[i] = host.equals(mapping[child1.getNumber()]) || host.equals(mapping[child2.getNumber()]);
+			if (duplication[i]) {
+				for (int k = 0; k < 2; ++k) {
+					final int c = symbiontTree.getChild(node, k).getNumber();
+					if (duplication[c] && mapping[c].equals(host)) rank[i] = Math.max(rank[i], rank[c]);
+				}
+				++rank[i];
+				rankCount[host.getNumber()] = Math.max(rankCount[host.getNumber()], rank[i]);
+			}
+		}
+
+		// Heights always increase from children to parents, as every host lineage below is younger
+		for (final NodeRef node : postorder) {
+			if (symbiontTree.isExternal(node)) continue;
+			final int i = node.getNumber();
+			final NodeRef host = mapping[i];
+			final double hostHeight = hostTree.getNodeHeight(host);
+			if (duplication[i]) {
+				final double top = hostTree.isRoot(host) ? originHeight : hostTree.getNodeHeight(hostTree.getParent(host));
+				symbiontTree.setNodeHeight(node, hostHeight + (top - hostHeight) * rank[i] / (rankCount[host.getNumber()] + 1));
+			} else {
+				symbiontTree.setNodeHeight(node, hostHeight);
+			}
+		}
+
+		if (maximumLikelihood && cophylogenyLikelihood.getCophylogenyModel() instanceof SimpleCophylogenyModel) {
+			final HostMappingFilter filter = new HostMappingFilter(hostTree, symbiontTree, (SimpleCophylogenyModel) cophylogenyLikelihood.getCophylogenyModel(), cophylogenyLikelihood.getBranchRates(), hostTreeIndex, true);
+			final NodeRef[][] candidates = new NodeRef[nodeCount][];
+			final double[][] partials = new double[nodeCount][];
+			final NodeRef[] best = new NodeRef[nodeCount];
+			cophylogenyLikelihood.getLogLikelihood(); // Brings the model up to date
+			for (final NodeRef node : postorder) {
+				if (symbiontTree.isExternal(node))
+					filter.filterTip(node, mapping[node.getNumber()], candidates, partials);
+				else
+					filter.filterNode(node, candidates, partials);
+			}
+			// The parsimonious mapping is always a candidate, so is kept if nothing is more likely
+			if (filter.sample(originHeight, candidates, partials, postorder, best))
+				System.arraycopy(best, 0, mapping, 0, nodeCount);
+		}
+
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i) {
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			cophylogenyLikelihood.setStatesForNode(node, mapping[node.getNumber()]);
+		}
+		cophylogenyLikelihood.makeDirty(); // Filtering leaves the model with arbitrary events
+		return cophylogenyLikelihood.getLogLikelihood();
+
+	}
+
+}
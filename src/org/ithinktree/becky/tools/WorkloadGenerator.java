@@ -0,0 +1,337 @@
+/**
+ * WorkloadGenerator.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ithinktree.becky.NodeRefProvider;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+
+import dr.app.util.Arguments;
+import dr.app.util.Arguments.ArgumentException;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeTraitProvider;
+import dr.evolution.util.Units;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * Generates families of synthetic cophylogenies for benchmarks and performance regression tests.
+ * <p/>
+ * Each workload is a pure-birth host tree with about the requested number of tips, and a symbiont tree coevolved
+ * along it under one of a few regimes of event rates, both reproducible from a seed. A workload is written as its
+ * two trees, annotated with the true mapping, the associations of the symbiont tips and a BEAST XML that samples
+ * the mapping and symbiont tree under the cophylogeny model alone, starting from a reconciliation.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+public class WorkloadGenerator {
+
+	/**
+	 * Rates of duplication, host-switching and loss per unit time, relative to a host speciation rate of one.
+	 * Under the balanced regime losses offset the duplications and host-switches, so the symbiont tree is about
+	 * the size of the host tree.
+	 */
+	public enum Regime {
+
+		BALANCED(0.05, 0.05, 0.1),
+		DUPLICATION_HEAVY(0.2, 0.05, 0.15),
+		SWITCH_HEAVY(0.05, 0.2, 0.15),
+		LOSS_HEAVY(0.05, 0.05, 0.3);
+
+		public final double duplicationRate;
+		public final double hostSwitchRate;
+		public final double lossRate;
+
+		private Regime(final double duplicationRate, final double hostSwitchRate, final double lossRate) {
+			this.duplicationRate = duplicationRate;
+			this.hostSwitchRate = hostSwitchRate;
+			this.lossRate = lossRate;
+		}
+
+		public String getName() {
+			return name().toLowerCase(Locale.US).replace('_', '-');
+		}
+
+		public static Regime fromName(final String name) {
+			for (final Regime regime : values())
+				if (regime.getName().equals(name) || regime.name().equals(name)) return regime;
+			throw new IllegalArgumentException("Unknown regime: " + name);
+		}
+
+	}
+
+	public static final class Workload {
+
+		public final String name;
+		public final Regime regime;
+		public final long seed;
+		public final Tree hostTree;
+		/** Each node has the number of its host node as the host.nodeRef attribute */
+		public final Tree symbiontTree;
+		/** Host taxon of each symbiont taxon */
+		public final Map<String,String> associations;
+
+		private Workload(final String name, final Regime regime, final long seed, final Tree hostTree, final Tree symbiontTree, final Map<String,String> associations) {
+			this.name = name;
+			this.regime = regime;
+			this.seed = seed;
+			this.hostTree = hostTree;
+			this.symbiontTree = symbiontTree;
+			this.associations = associations;
+		}
+
+	}
+
+	public static final String HOST = "host";
+	public static final String HOST_NODE_REF = "host.nodeRef";
+
+	private static final double BIRTH_RATE = 1.0;
+
+	/**
+	 * @param hostTips number of host tips to aim for, which is met to within a factor of two
+	 */
+	public Workload generate(final int hostTips, final Regime regime, final long seed) {
+
+		// BirthDeathSimulator only draws from MathUtils
+		MathUtils.setSeed(seed);
+		Tree hostTree;
+		do {
+			hostTree = new BirthDeathSimulator().simulateBirthDeathTree(Math.log(Math.max(hostTips, 2)) / BIRTH_RATE, BIRTH_RATE, 0.0);
+		} while (hostTree.getExternalNodeCount() < hostTips / 2 || hostTree.getExternalNodeCount() > 2 * hostTips);
+
+		final CoevolutionSimulator simulator = new CoevolutionSimulator(seed);
+		final Tree symbiontTree = simulator.simulateCoevolution(hostTree, 1.0, createModel(regime), false);
+
+		return new Workload(regime.getName() + "-" + hostTips + "-" + seed, regime, seed, hostTree, symbiontTree, new TreeMap<String,String>(simulator.associations));
+
+	}
+
+	public static SimpleCophylogenyModel createModel(final Regime regime) {
+		return new SimpleCophylogenyModel(new Parameter.Default(regime.duplicationRate), new Parameter.Default(regime.hostSwitchRate), new Parameter.Default(regime.lossRate), Units.Type.YEARS);
+	}
+
+	/**
+	 * Writes a workload as name.host.newick, name.symbiont.newick, name.associations and name.xml.
+	 */
+	public void write(final Workload workload, final File directory, final int chainLength) throws FileNotFoundException {
+
+		PrintStream stream = new PrintStream(new File(directory, workload.name + ".host.newick"));
+		stream.println(Tree.Utils.newick(workload.hostTree, new TreeTraitProvider[]{new NodeRefProvider(workload.hostTree, "nodeRef")}));
+		stream.close();
+
+		stream = new PrintStream(new File(directory, workload.name + ".symbiont.newick"));
+		stream.println(Tree.Utils.newick(workload.symbiontTree, new TreeTraitProvider[]{CoevolutionSimulator.RECONCILIATION_PROVIDER}));
+		stream.close();
+
+		stream = new PrintStream(new File(directory, workload.name + ".associations"));
+		for (final Map.Entry<String,String> association : workload.associations.entrySet())
+			stream.println(association.getKey() + "\t" + association.getValue());
+		stream.close();
+
+		stream = new PrintStream(new File(directory, workload.name + ".xml"));
+		writeXML(workload, stream, chainLength);
+		stream.close();
+
+	}
+
+	private void writeXML(final Workload workload, final PrintStream out, final int chainLength) {
+
+		final Regime regime = workload.regime;
+		final double originHeight = 1.1 * Math.max(workload.hostTree.getNodeHeight(workload.hostTree.getRoot()), workload.symbiontTree.getNodeHeight(workload.symbiontTree.getRoot()));
+		final int logEvery = Math.max(1, chainLength / 1000);
+
+		out.println("<?xml version=\"1.0\" standalone=\"yes\"?>");
+		out.println("<!-- Workload " + workload.name + ": " + workload.hostTree.getExternalNodeCount() + " host and " + workload.symbiontTree.getExternalNodeCount() + " symbiont tips, seed " + workload.seed + " -->");
+		out.println("<beast>");
+		out.println();
+
+		out.println("\t<taxa id=\"host.taxa\">");
+		for (int i = 0; i < workload.hostTree.getTaxonCount(); ++i)
+			out.println("\t\t<taxon id=\"" + workload.hostTree.getTaxonId(i) + "\"/>");
+		out.println("\t</taxa>");
+		out.println("\t<taxa id=\"symbiont.taxa\">");
+		for (int i = 0; i < workload.symbiontTree.getTaxonCount(); ++i) {
+			final String taxon = workload.symbiontTree.getTaxonId(i);
+			out.println("\t\t<taxon id=\"" + taxon + "\">");
+			out.println("\t\t\t<attr name=\"" + HOST + "\"><taxon idref=\"" + workload.associations.get(taxon) + "\"/></attr>");
+			out.println("\t\t</taxon>");
+		}
+		out.println("\t</taxa>");
+		out.println();
+
+		writeTreeModel(out, "host", workload.hostTree);
+		writeTreeModel(out, "symbiont", workload.symbiontTree);
+
+		out.println("\t<simpleCophylogenyModel id=\"cophylogeny.model\" units=\"years\">");
+		out.println("\t\t<duplicationRate><parameter id=\"cophylogeny.duplicationRate\" value=\"" + regime.duplicationRate + "\" lower=\"0.0\"/></duplicationRate>");
+		out.println("\t\t<hostSwitchRate><parameter id=\"cophylogeny.hostSwitchRate\" value=\"" + regime.hostSwitchRate + "\" lower=\"0.0\"/></hostSwitchRate>");
+		out.println("\t\t<lossRate><parameter id=\"cophylogeny.lossRate\" value=\"" + regime.lossRate + "\" lower=\"0.0\"/></lossRate>");
+		out.println("\t</simpleCophylogenyModel>");
+		out.println("\t<strictClockBranchRates id=\"cophylogeny.branchRates\">");
+		out.println("\t\t<rate><parameter id=\"cophylogeny.clock.rate\" value=\"1.0\"/></rate>");
+		out.println("\t</strictClockBranchRates>");
+		out.println("\t<cophylogenyLikelihood id=\"cophylogeny.likelihood\" stateTagName=\"" + HOST_NODE_REF + "\">");
+		out.println("\t\t<simpleCophylogenyModel idref=\"cophylogeny.model\"/>");
+		writeTrees(out, "\t\t");
+		out.println("\t\t<strictClockBranchRates idref=\"cophylogeny.branchRates\"/>");
+		out.println("\t\t<parameter id=\"cophylogeny.origin\" value=\"" + originHeight + "\" lower=\"0.0\"/>");
+		out.println("\t</cophylogenyLikelihood>");
+		out.println("\t<reconciliationInitializer hostAttributeName=\"" + HOST + "\">");
+		writeTrees(out, "\t\t");
+		out.println("\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t</reconciliationInitializer>");
+		out.println("\t<evaluationCounters id=\"cophylogeny.counters\">");
+		out.println("\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t</evaluationCounters>");
+		out.println();
+
+		out.println("\t<operators id=\"operators\">");
+		for (final String rate : new String[]{"duplicationRate", "hostSwitchRate", "lossRate"}) {
+			out.println("\t\t<scaleOperator scaleFactor=\"0.75\" weight=\"1\"><parameter idref=\"cophylogeny." + rate + "\"/></scaleOperator>");
+		}
+		out.println("\t\t<hostSwitchOperator weight=\"30\">");
+		writeTrees(out, "\t\t\t");
+		out.println("\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t\t</hostSwitchOperator>");
+		for (final String operator : new String[]{"cospeciationOperator", "tugOperator"}) {
+			out.println("\t\t<" + operator + " weight=\"3\">");
+			writeTrees(out, "\t\t\t");
+			out.println("\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+			out.println("\t\t</" + operator + ">");
+		}
+		out.println("\t\t<hostSwitchingWilsonBalding weight=\"3\">");
+		out.println("\t\t\t<treeModel idref=\"symbiont.treeModel\"/>");
+		out.println("\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t\t</hostSwitchingWilsonBalding>");
+		out.println("\t</operators>");
+		out.println();
+
+		out.println("\t<mcmc id=\"mcmc\" chainLength=\"" + chainLength + "\" autoOptimize=\"true\" operatorAnalysis=\"" + workload.name + ".ops\">");
+		out.println("\t\t<posterior id=\"posterior\">");
+		out.println("\t\t\t<prior id=\"prior\">");
+		for (final String rate : new String[]{"duplicationRate", "hostSwitchRate", "lossRate"}) {
+			out.println("\t\t\t\t<gammaPrior shape=\"1.0\" scale=\"1.0\" offset=\"0.0\"><parameter idref=\"cophylogeny." + rate + "\"/></gammaPrior>");
+		}
+		out.println("\t\t\t</prior>");
+		out.println("\t\t\t<likelihood id=\"likelihood\">");
+		out.println("\t\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t\t\t</likelihood>");
+		out.println("\t\t</posterior>");
+		out.println("\t\t<operators idref=\"operators\"/>");
+		out.println("\t\t<log id=\"screenLog\" logEvery=\"" + logEvery * 10 + "\">");
+		out.println("\t\t\t<posterior idref=\"posterior\"/>");
+		out.println("\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		out.println("\t\t</log>");
+		out.println("\t\t<log id=\"fileLog\" logEvery=\"" + logEvery + "\" fileName=\"" + workload.name + ".log\">");
+		out.println("\t\t\t<posterior idref=\"posterior\"/>");
+		out.println("\t\t\t<cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/>");
+		for (final String rate : new String[]{"duplicationRate", "hostSwitchRate", "lossRate"}) {
+			out.println("\t\t\t<parameter idref=\"cophylogeny." + rate + "\"/>");
+		}
+		out.println("\t\t\t<parameter idref=\"cophylogeny.origin\"/>");
+		out.println("\t\t\t<evaluationCounters idref=\"cophylogeny.counters\"/>");
+		out.println("\t\t</log>");
+		out.println("\t\t<logTree id=\"symbiontTreeLog\" logEvery=\"" + logEvery + "\" nexusFormat=\"true\" fileName=\"" + workload.name + ".symbiont.trees\">");
+		out.println("\t\t\t<treeModel idref=\"symbiont.treeModel\"/>");
+		out.println("\t\t\t<trait name=\"" + HOST_NODE_REF + "\" tag=\"" + HOST_NODE_REF + "\"><cophylogenyLikelihood idref=\"cophylogeny.likelihood\"/></trait>");
+		out.println("\t\t\t<posterior idref=\"posterior\"/>");
+		out.println("\t\t</logTree>");
+		out.println("\t</mcmc>");
+		out.println();
+		out.println("\t<report><property name=\"timer\"><mcmc idref=\"mcmc\"/></property></report>");
+		out.println("\t<report><evaluationCounters idref=\"cophylogeny.counters\"/></report>");
+		out.println();
+		out.println("</beast>");
+
+	}
+
+	private static void writeTreeModel(final PrintStream out, final String prefix, final Tree tree) {
+		out.println("\t<newick id=\"" + prefix + ".startingTree\" usingDates=\"false\">");
+		out.println("\t\t" + Tree.Utils.newick(tree));
+		out.println("\t</newick>");
+		out.println("\t<treeModel id=\"" + prefix + ".treeModel\">");
+		out.println("\t\t<coalescentTree idref=\"" + prefix + ".startingTree\"/>");
+		out.println("\t\t<rootHeight><parameter id=\"" + prefix + ".treeModel.rootHeight\"/></rootHeight>");
+		out.println("\t\t<nodeHeights internalNodes=\"true\"><parameter id=\"" + prefix + ".treeModel.internalNodeHeights\"/></nodeHeights>");
+		out.println("\t\t<nodeHeights internalNodes=\"true\" rootNode=\"true\"><parameter id=\"" + prefix + ".treeModel.allInternalNodeHeights\"/></nodeHeights>");
+		out.println("\t</treeModel>");
+		out.println();
+	}
+
+	private static void writeTrees(final PrintStream out, final String indent) {
+		out.println(indent + "<hostTree><treeModel idref=\"host.treeModel\"/></hostTree>");
+		out.println(indent + "<symbiontTree><treeModel idref=\"symbiont.treeModel\"/></symbiontTree>");
+	}
+
+	public static void main(String[] args) {
+
+		Locale.setDefault(Locale.US);
+		final Arguments arguments = new Arguments(new Arguments.Option[]{
+				new Arguments.StringOption("dir", "directory", "output directory, which must exist"),
+				new Arguments.IntegerArrayOption("sizes", "numbers of host tips, e.g. 10,100,1000"),
+				new Arguments.StringOption("regimes", "regimes", "any of balanced, duplication-heavy, switch-heavy and loss-heavy, e.g. duplication-heavy,loss-heavy"),
+				new Arguments.IntegerArrayOption("seeds", "random number generator seeds, one workload for each"),
+				new Arguments.IntegerOption("chainLength", "length of the chain in the BEAST XML")
+		});
+
+		try {
+			arguments.parseArguments(args);
+		} catch (ArgumentException e) {
+			e.printStackTrace(System.err);
+			arguments.printUsage("workloadgenerator", "");
+			System.exit(1);
+		}
+
+		final File directory = new File(arguments.hasOption("dir") ? arguments.getStringOption("dir") : ".");
+		if (!directory.isDirectory()) {
+			System.err.println("No such directory: " + directory);
+			System.exit(1);
+		}
+		final int[] sizes = arguments.hasOption("sizes") ? arguments.getIntegerArrayOption("sizes") : new int[]{10, 100, 1000, 10000};
+		final List<Regime> regimes = new ArrayList<Regime>();
+		if (arguments.hasOption("regimes")) {
+			for (final String name : arguments.getStringOption("regimes").split(","))
+				regimes.add(Regime.fromName(name.trim()));
+		} else {
+			for (final Regime regime : Regime.values())
+				regimes.add(regime);
+		}
+		final int[] seeds = arguments.hasOption("seeds") ? arguments.getIntegerArrayOption("seeds") : new int[]{1};
+		final int chainLength = arguments.hasOption("chainLength") ? arguments.getIntegerOption("chainLength") : 1000000;
+
+		final WorkloadGenerator generator = new WorkloadGenerator();
+		for (final int size : sizes) {
+			for (final Regime regime : regimes) {
+				for (final int seed : seeds) {
+					if (seed <= 0) {
+						System.err.println("The random number seeds should be > 0");
+						System.exit(1);
+					}
+					final Workload workload = generator.generate(size, regime, seed);
+					try {
+						generator.write(workload, directory, chainLength);
+					} catch (FileNotFoundException e) {
+						e.printStackTrace();
+						System.exit(1);
+					}
+					System.out.println(workload.name + "\t" + workload.hostTree.getExternalNodeCount() + "\t" + workload.symbiontTree.getExternalNodeCount());
+				}
+			}
+		}
+
+	}
+
+}
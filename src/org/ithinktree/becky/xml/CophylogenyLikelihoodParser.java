@@ -9,6 +9,8 @@ package org.ithinktree.becky.xml;
 
 import org.ithinktree.becky.CophylogenyLikelihood;
 import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
 
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.Tree;
@@ -35,6 +37,7 @@ public class CophylogenyLikelihoodParser extends AbstractXMLObjectParser {
 	public static final String SYMBIONT_TREE = "symbiontTree";
 	public static final String CLOCK_MODEL = "clockModel";
 	public static final String RECONSTRUCTION_TAG_NAME = "stateTagName";
+	public static final String MARGINALIZE_MAPPING = "marginalizeMapping";
 
 	
 	@Override
@@ -47,6 +50,8 @@ public class CophylogenyLikelihoodParser extends AbstractXMLObjectParser {
 	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 		
 		final String reconstructionTagName = xo.getStringAttribute(RECONSTRUCTION_TAG_NAME);
+		final boolean marginalizeMapping = xo.hasAttribute(MARGINALIZE_MAPPING) ?
+							xo.getBooleanAttribute(MARGINALIZE_MAPPING) : false;
 				
 		final CophylogenyModel cophylogenyModel = (CophylogenyModel) xo.getChild(CophylogenyModel.class);
 				
@@ -60,6 +65,12 @@ public class CophylogenyLikelihoodParser extends AbstractXMLObjectParser {
 		
 		final Parameter origin = (Parameter) xo.getChild(Parameter.class);
 		
+		if (marginalizeMapping) {
+			if (!(cophylogenyModel instanceof SimpleCophylogenyModel))
+				throw new XMLParseException(MARGINALIZE_MAPPING + " requires a simple cophylogeny model");
+			return new MarginalCophylogenyLikelihood(hostTree, symbiontTree, (SimpleCophylogenyModel) cophylogenyModel, branchRateModel, origin, reconstructionTagName, xo.getId());
+		}
+		
 		return new CophylogenyLikelihood(hostTree, symbiontTree, cophylogenyModel, branchRateModel, origin, reconstructionTagName, xo.getId());
 	}
 
@@ -84,6 +95,7 @@ public class CophylogenyLikelihoodParser extends AbstractXMLObjectParser {
 
 	private final XMLSyntaxRule[] rules = {
 			AttributeRule.newStringRule(RECONSTRUCTION_TAG_NAME),
+			AttributeRule.newBooleanRule(MARGINALIZE_MAPPING, true),
 			new ElementRule(CophylogenyModel.class),
 			new ElementRule(HOST_TREE, new XMLSyntaxRule[]{
 					new ElementRule(Tree.class)
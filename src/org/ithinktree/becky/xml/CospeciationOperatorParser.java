@@ -8,6 +8,7 @@ package org.ithinktree.becky.xml;
 
 import org.ithinktree.becky.CophylogenyLikelihood;
 import org.ithinktree.becky.CospeciationOperator;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
 
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.Tree;
@@ -46,6 +47,8 @@ public class CospeciationOperatorParser extends AbstractXMLObjectParser {
         final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
         
         final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+        if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+            throw new XMLParseException(COSPECIATION_OPERATOR + " requires the hosts of internal nodes to be part of the state");
         
         return new CospeciationOperator(hostTree, symbiontTree, cophylogenyLikelihood, weight);
     }
@@ -0,0 +1,93 @@
+/**
+ * DelayedAcceptanceOperatorParser.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky.xml;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.DelayedAcceptanceOperator;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
+import org.ithinktree.becky.NoExtinctionCophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.Tree;
+import dr.inference.operators.GibbsOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class DelayedAcceptanceOperatorParser extends AbstractXMLObjectParser {
+
+	public static final String DELAYED_ACCEPTANCE_OPERATOR = "delayedAcceptanceOperator";
+	public static final String HOST_TREE = "hostTree";
+	public static final String SYMBIONT_TREE = "symbiontTree";
+
+	@Override
+	public String getParserName() {
+		return DELAYED_ACCEPTANCE_OPERATOR;
+	}
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+		final double weight = xo.getDoubleAttribute(MCMCOperator.WEIGHT);
+
+		XMLObject cxo = xo.getChild(HOST_TREE);
+		final Tree hostTree = (Tree) cxo.getChild(Tree.class);
+
+		cxo = xo.getChild(SYMBIONT_TREE);
+		final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
+
+		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		if (!(cophylogenyLikelihood.getCophylogenyModel() instanceof SimpleCophylogenyModel))
+			throw new XMLParseException(DELAYED_ACCEPTANCE_OPERATOR + " requires a simple cophylogeny model");
+		if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+			throw new XMLParseException(DELAYED_ACCEPTANCE_OPERATOR + " requires the hosts of internal nodes to be part of the state");
+
+		final MCMCOperator operator = (MCMCOperator) xo.getChild(MCMCOperator.class);
+		if (operator instanceof GibbsOperator)
+			throw new XMLParseException(DELAYED_ACCEPTANCE_OPERATOR + " cannot screen a Gibbs operator, whose moves are always accepted");
+
+		return new DelayedAcceptanceOperator(operator, new NoExtinctionCophylogenyLikelihood(hostTree, symbiontTree, cophylogenyLikelihood), weight);
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "This operator screens the proposals of another operator with the cophylogeny likelihood assuming no extinctions, before the full likelihood is calculated.";
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getReturnType() {
+		return DelayedAcceptanceOperator.class;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			AttributeRule.newDoubleRule(MCMCOperator.WEIGHT),
+			new ElementRule(HOST_TREE, new XMLSyntaxRule[]{
+					new ElementRule(Tree.class)
+			}),
+			new ElementRule(SYMBIONT_TREE, new XMLSyntaxRule[]{
+					new ElementRule(MutableTree.class)
+			}),
+			new ElementRule(CophylogenyLikelihood.class),
+			new ElementRule(MCMCOperator.class)
+	};
+
+}
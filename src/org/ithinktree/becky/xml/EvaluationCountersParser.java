@@ -0,0 +1,61 @@
+/**
+ * EvaluationCountersParser.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky.xml;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.EvaluationCounters;
+
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class EvaluationCountersParser extends AbstractXMLObjectParser {
+
+	public static final String EVALUATION_COUNTERS = "evaluationCounters";
+
+	@Override
+	public String getParserName() {
+		return EVALUATION_COUNTERS;
+	}
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+
+		final EvaluationCounters counters = xo.getId() != null ? new EvaluationCounters(xo.getId()) : new EvaluationCounters();
+		cophylogenyLikelihood.setEvaluationCounters(counters);
+		return counters;
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "Counts the evaluations of a cophylogeny likelihood and the time spent in them, for logging and a summary in a report.";
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getReturnType() {
+		return EvaluationCounters.class;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			new ElementRule(CophylogenyLikelihood.class)
+	};
+
+}
@@ -0,0 +1,83 @@
+/**
+ * GibbsHostOperatorParser.java
+ * 
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ * 
+ */
+package org.ithinktree.becky.xml;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.GibbsHostOperator;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.Tree;
+import dr.inference.operators.MCMCOperator;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class GibbsHostOperatorParser extends AbstractXMLObjectParser {
+	
+	public static final String GIBBS_HOST_OPERATOR = "gibbsHostOperator";
+	public static final String HOST_TREE = "hostTree";
+	public static final String SYMBIONT_TREE = "symbiontTree";
+
+	@Override
+	public String getParserName() {
+		return GIBBS_HOST_OPERATOR;
+	}
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+		
+		final double weight = xo.getDoubleAttribute(MCMCOperator.WEIGHT);
+		
+		XMLObject cxo = xo.getChild(HOST_TREE);
+		final Tree hostTree = (Tree) cxo.getChild(Tree.class);
+		
+		cxo = xo.getChild(SYMBIONT_TREE);
+		final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
+		
+		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+			throw new XMLParseException(GIBBS_HOST_OPERATOR + " requires the hosts of internal nodes to be part of the state");
+		
+		return new GibbsHostOperator(hostTree, symbiontTree, cophylogenyLikelihood, weight);
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "This operator samples the host of a symbiont node from its full conditional distribution.";
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getReturnType() {
+		return GibbsHostOperator.class;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			AttributeRule.newDoubleRule(MCMCOperator.WEIGHT),
+			new ElementRule(HOST_TREE, new XMLSyntaxRule[]{
+					new ElementRule(Tree.class)
+			}),
+			new ElementRule(SYMBIONT_TREE, new XMLSyntaxRule[]{
+					new ElementRule(MutableTree.class)
+			}),
+			new ElementRule(CophylogenyLikelihood.class)
+	};
+	
+}
@@ -0,0 +1,86 @@
+/**
+ * HostMappingOperatorParser.java
+ * 
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ * 
+ */
+package org.ithinktree.becky.xml;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.HostMappingOperator;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.Tree;
+import dr.inference.operators.MCMCOperator;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class HostMappingOperatorParser extends AbstractXMLObjectParser {
+	
+	public static final String HOST_MAPPING_OPERATOR = "hostMappingOperator";
+	public static final String HOST_TREE = "hostTree";
+	public static final String SYMBIONT_TREE = "symbiontTree";
+
+	@Override
+	public String getParserName() {
+		return HOST_MAPPING_OPERATOR;
+	}
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+		
+		final double weight = xo.getDoubleAttribute(MCMCOperator.WEIGHT);
+		
+		XMLObject cxo = xo.getChild(HOST_TREE);
+		final Tree hostTree = (Tree) cxo.getChild(Tree.class);
+		
+		cxo = xo.getChild(SYMBIONT_TREE);
+		final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
+		
+		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		if (!(cophylogenyLikelihood.getCophylogenyModel() instanceof SimpleCophylogenyModel))
+			throw new XMLParseException(HOST_MAPPING_OPERATOR + " requires a simple cophylogeny model");
+		if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+			throw new XMLParseException(HOST_MAPPING_OPERATOR + " requires the hosts of internal nodes to be part of the state");
+		
+		return new HostMappingOperator(hostTree, symbiontTree, cophylogenyLikelihood, weight);
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "This operator samples the hosts of all internal symbiont nodes at once from their joint conditional distribution.";
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getReturnType() {
+		return HostMappingOperator.class;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			AttributeRule.newDoubleRule(MCMCOperator.WEIGHT),
+			new ElementRule(HOST_TREE, new XMLSyntaxRule[]{
+					new ElementRule(Tree.class)
+			}),
+			new ElementRule(SYMBIONT_TREE, new XMLSyntaxRule[]{
+					new ElementRule(MutableTree.class)
+			}),
+			new ElementRule(CophylogenyLikelihood.class)
+	};
+	
+}
@@ -8,6 +8,7 @@ package org.ithinktree.becky.xml;
 
 import org.ithinktree.becky.CophylogenyLikelihood;
 import org.ithinktree.becky.HostSwitchOperator;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
 
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.Tree;
@@ -27,6 +28,7 @@ public class HostSwitchOperatorParser extends AbstractXMLObjectParser {
 	
 	public static final String HOST_SWITCH_OPERATOR = "hostSwitchOperator";
 	public static final String SAMPLE_NO_HOST = "sampleNoHost";
+	public static final String FEASIBLE_HOSTS_ONLY = "feasibleHostsOnly";
 	public static final String HOST_TREE = "hostTree";
 	public static final String SYMBIONT_TREE = "symbiontTree";
 
@@ -42,6 +44,10 @@ public class HostSwitchOperatorParser extends AbstractXMLObjectParser {
 		
 		final boolean usingNoHost = xo.hasAttribute(SAMPLE_NO_HOST) ?
 							xo.getBooleanAttribute(SAMPLE_NO_HOST) : false;
+		final boolean feasibleHostsOnly = xo.hasAttribute(FEASIBLE_HOSTS_ONLY) ?
+							xo.getBooleanAttribute(FEASIBLE_HOSTS_ONLY) : false;
+		if (usingNoHost && feasibleHostsOnly)
+			throw new XMLParseException("Cannot both " + SAMPLE_NO_HOST + " and propose " + FEASIBLE_HOSTS_ONLY);
 		
 		XMLObject cxo = xo.getChild(HOST_TREE);
 		final Tree hostTree = (Tree) cxo.getChild(Tree.class);
@@ -50,8 +56,10 @@ public class HostSwitchOperatorParser extends AbstractXMLObjectParser {
 		final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
 		
 		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+			throw new XMLParseException(HOST_SWITCH_OPERATOR + " requires the hosts of internal nodes to be part of the state");
 		
-		return new HostSwitchOperator(hostTree, symbiontTree, cophylogenyLikelihood, usingNoHost, weight);
+		return new HostSwitchOperator(hostTree, symbiontTree, cophylogenyLikelihood, usingNoHost, feasibleHostsOnly, weight);
 	}
 
 	@Override
@@ -73,6 +81,7 @@ public class HostSwitchOperatorParser extends AbstractXMLObjectParser {
 	private final XMLSyntaxRule[] rules = {
 			AttributeRule.newDoubleRule(MCMCOperator.WEIGHT),
 			AttributeRule.newBooleanRule(SAMPLE_NO_HOST, true),
+			AttributeRule.newBooleanRule(FEASIBLE_HOSTS_ONLY, true),
 			new ElementRule(HOST_TREE, new XMLSyntaxRule[]{
 					new ElementRule(Tree.class)
 			}),
@@ -2,6 +2,7 @@ package org.ithinktree.becky.xml;
 
 import org.ithinktree.becky.CophylogenyLikelihood;
 import org.ithinktree.becky.HostSwitchingWilsonBalding;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
 
 import dr.evomodel.tree.TreeModel;
 import dr.inference.operators.MCMCOperator;
@@ -28,6 +29,8 @@ public class HostSwitchingWilsonBaldingParser extends AbstractXMLObjectParser {
 
         final TreeModel treeModel = (TreeModel) xo.getChild(TreeModel.class);
         final CophylogenyLikelihood cl = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+        if (cl instanceof MarginalCophylogenyLikelihood)
+            throw new XMLParseException(HOST_SWITCHING_WILSON_BALDING + " requires the hosts of internal nodes to be part of the state");
 
         return new HostSwitchingWilsonBalding(treeModel, cl, weight);
     }
@@ -0,0 +1,91 @@
+/**
+ * ReconciliationInitializerParser.java
+ * 
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ * 
+ */
+package org.ithinktree.becky.xml;
+
+import java.util.logging.Logger;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.tools.ReconciliationInitializer;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.Tree;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class ReconciliationInitializerParser extends AbstractXMLObjectParser {
+
+	public static final String RECONCILIATION_INITIALIZER = "reconciliationInitializer";
+	public static final String HOST_TREE = "hostTree";
+	public static final String SYMBIONT_TREE = "symbiontTree";
+	public static final String HOST_ATTRIBUTE_NAME = "hostAttributeName";
+	public static final String MAXIMUM_LIKELIHOOD = "maximumLikelihood";
+	
+	@Override
+	public String getParserName() {
+		return RECONCILIATION_INITIALIZER;
+	}
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+		final boolean maximumLikelihood = xo.hasAttribute(MAXIMUM_LIKELIHOOD) ?
+				xo.getBooleanAttribute(MAXIMUM_LIKELIHOOD) : true;
+		
+		XMLObject cxo = xo.getChild(HOST_TREE);
+		final Tree hostTree = (Tree) cxo.getChild(Tree.class);
+		
+		cxo = xo.getChild(SYMBIONT_TREE);
+		final MutableTree symbiontTree = (MutableTree) cxo.getChild(Tree.class);
+		
+		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		
+		final ReconciliationInitializer initializer = new ReconciliationInitializer(hostTree, symbiontTree, cophylogenyLikelihood);
+		try {
+			if (xo.hasAttribute(HOST_ATTRIBUTE_NAME)) initializer.setTipHosts(xo.getStringAttribute(HOST_ATTRIBUTE_NAME));
+			Logger.getLogger("dr.xml").info("Starting cophylogeny log likelihood: " + initializer.initialize(maximumLikelihood));
+		} catch (IllegalArgumentException e) {
+			throw new XMLParseException(e.getMessage());
+		}
+		return null;
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "Reconciles the symbiont starting tree with the host tree, setting a parsimonious or most likely mapping and node heights.";
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getReturnType() {
+		return ReconciliationInitializer.class;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			AttributeRule.newStringRule(HOST_ATTRIBUTE_NAME, true),
+			AttributeRule.newBooleanRule(MAXIMUM_LIKELIHOOD, true),
+			new ElementRule(HOST_TREE, new XMLSyntaxRule[] {
+					new ElementRule(Tree.class)
+			}),
+			new ElementRule(SYMBIONT_TREE, new XMLSyntaxRule[] {
+					new ElementRule(MutableTree.class)
+			}),
+			new ElementRule(CophylogenyLikelihood.class)
+	};
+}
@@ -0,0 +1,89 @@
+/**
+ * SimpleDeterministicCophylogenyModelParser.java
+ *
+ * BECKY - Bayesian Estimation of Coevolutionary KrYteria
+ *
+ */
+package org.ithinktree.becky.xml;
+
+import org.ithinktree.becky.ExtinctionProbabilitySolver;
+import org.ithinktree.becky.SimpleDeterministicCophylogenyModel;
+
+import dr.evolution.util.Units.Type;
+import dr.evoxml.util.XMLUnits;
+import dr.evoxml.util.XMLUnits.Utils;
+import dr.inference.model.Parameter;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+public class SimpleDeterministicCophylogenyModelParser extends
+		AbstractXMLObjectParser {
+
+	public static final String SIMPLE_DETERMINISTIC_COPHYLOGENY_MODEL = "simpleDeterministicCophylogenyModel";
+	public static final String DUPLICATION_RATE = "duplicationRate";
+	public static final String HOST_SWITCH_RATE = "hostSwitchRate";
+	public static final String LOSS_RATE = "lossRate";
+	public static final String STEP_SIZE = "stepSize";
+
+	@Override
+	public String getParserName() {
+		return SIMPLE_DETERMINISTIC_COPHYLOGENY_MODEL;
+	}
+
+	@Override
+	public String getParserDescription() {
+		return "Parses a SimpleCophylogenyModel that solves for the probabilities of no descendants numerically.";
+	}
+
+	@Override
+	public Class<?> getReturnType() {
+		return SimpleDeterministicCophylogenyModel.class;
+	}
+
+	@Override
+	public XMLSyntaxRule[] getSyntaxRules() {
+		return rules;
+	}
+
+	private final XMLSyntaxRule[] rules = {
+			new ElementRule(DUPLICATION_RATE, new XMLSyntaxRule[]{
+					new ElementRule(Parameter.class)
+			}),
+			new ElementRule(HOST_SWITCH_RATE, new XMLSyntaxRule[]{
+					new ElementRule(Parameter.class)
+			}),
+			new ElementRule(LOSS_RATE, new XMLSyntaxRule[]{
+					new ElementRule(Parameter.class)
+			}),
+			XMLUnits.SYNTAX_RULES[0],
+			AttributeRule.newDoubleRule(STEP_SIZE, true)
+	};
+
+	@Override
+	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+		final Type units = Utils.getUnitsAttr(xo);
+		final double stepSize = xo.hasAttribute(STEP_SIZE) ?
+							xo.getDoubleAttribute(STEP_SIZE) : ExtinctionProbabilitySolver.DEFAULT_STEP_SIZE;
+		if (stepSize <= 0.0) throw new XMLParseException(STEP_SIZE + " must be positive");
+
+		XMLObject cxo = xo.getChild(DUPLICATION_RATE);
+		final Parameter drParameter = (Parameter) cxo.getChild(Parameter.class);
+
+		cxo = xo.getChild(HOST_SWITCH_RATE);
+		final Parameter hsrParameter = (Parameter) cxo.getChild(Parameter.class);
+
+		cxo = xo.getChild(LOSS_RATE);
+		final Parameter lrParameter = (Parameter) cxo.getChild(Parameter.class);
+
+		return new SimpleDeterministicCophylogenyModel(drParameter, hsrParameter, lrParameter, stepSize, units);
+	}
+
+}
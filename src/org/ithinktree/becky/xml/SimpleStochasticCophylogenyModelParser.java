@@ -21,6 +21,9 @@ public class SimpleStochasticCophylogenyModelParser extends
 	public static final String HOST_SWITCH_RATE = "hostSwitchRate";
 	public static final String LOSS_RATE = "lossRate";
 	public static final String ITERATIONS = "iterations";
+	public static final String THREADS = "threads";
+	public static final String RELATIVE_STANDARD_ERROR = "relativeStandardError";
+	public static final String BATCH_SIZE = "batchSize";
 
 	
 	@Override
@@ -54,13 +57,27 @@ public class SimpleStochasticCophylogenyModelParser extends
 					new ElementRule(Parameter.class)
 			}),
 			XMLUnits.SYNTAX_RULES[0],
-			AttributeRule.newIntegerRule(ITERATIONS, false)
+			AttributeRule.newIntegerRule(ITERATIONS, false),
+			AttributeRule.newIntegerRule(THREADS, true),
+			AttributeRule.newDoubleRule(RELATIVE_STANDARD_ERROR, true),
+			AttributeRule.newIntegerRule(BATCH_SIZE, true)
 	};
 	
 	@Override
 	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 		final Type units = Utils.getUnitsAttr(xo);
 		final int iterations = xo.getIntegerAttribute(ITERATIONS);
+		final int threads = xo.hasAttribute(THREADS) ?
+							xo.getIntegerAttribute(THREADS) : 1;
+		// If given, iterations is just the most that may be simulated for each estimate
+		final double relativeStandardError = xo.hasAttribute(RELATIVE_STANDARD_ERROR) ?
+							xo.getDoubleAttribute(RELATIVE_STANDARD_ERROR) : 0.0;
+		final int batchSize = xo.hasAttribute(BATCH_SIZE) ?
+							xo.getIntegerAttribute(BATCH_SIZE) : Math.max(iterations / 100, 1);
+		if (xo.hasAttribute(RELATIVE_STANDARD_ERROR) && !(relativeStandardError > 0.0))
+			throw new XMLParseException(RELATIVE_STANDARD_ERROR + " must be positive");
+		if (batchSize <= 0)
+			throw new XMLParseException(BATCH_SIZE + " must be positive");
 		
 		XMLObject cxo = xo.getChild(DUPLICATION_RATE);
 		final Parameter drParameter = (Parameter) cxo.getChild(Parameter.class);
@@ -71,7 +88,7 @@ public class SimpleStochasticCophylogenyModelParser extends
 		cxo = xo.getChild(LOSS_RATE);
 		final Parameter lrParameter = (Parameter) cxo.getChild(Parameter.class);
 		
-		return new SimpleStochasticCophylogenyModel(drParameter, hsrParameter, lrParameter, iterations, units);
+		return new SimpleStochasticCophylogenyModel(drParameter, hsrParameter, lrParameter, iterations, threads, relativeStandardError, batchSize, units);
 	}
 
 }
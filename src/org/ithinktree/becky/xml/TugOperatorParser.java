@@ -1,6 +1,7 @@
 package org.ithinktree.becky.xml;
 
 import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
 import org.ithinktree.becky.TugOperator;
 
 import dr.evolution.tree.MutableTree;
@@ -64,6 +65,8 @@ public class TugOperatorParser extends AbstractXMLObjectParser {
 		final MutableTree symbiontTree = (MutableTree) cxo.getChild(MutableTree.class);
 		
 		final CophylogenyLikelihood cophylogenyLikelihood = (CophylogenyLikelihood) xo.getChild(CophylogenyLikelihood.class);
+		if (cophylogenyLikelihood instanceof MarginalCophylogenyLikelihood)
+			throw new XMLParseException(TUG_OPERATOR + " requires the hosts of internal nodes to be part of the state");
 		
 		return new TugOperator(symbiontTree, hostTree, cophylogenyLikelihood, weight);
 	
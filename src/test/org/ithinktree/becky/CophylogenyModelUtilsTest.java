@@ -5,6 +5,7 @@
  */
 package test.org.ithinktree.becky;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -41,6 +42,15 @@ public class CophylogenyModelUtilsTest {
 		Assert.assertTrue(test);
 	}
 
+	@Test
+	public void testGetContemporaneousLineagesInPreorder() {
+		// Not by hash, which can differ between runs and so change what a seeded simulation draws
+		Assert.assertEquals(Arrays.asList(TestUtils.A, TestUtils.B, TestUtils.C, TestUtils.DE),
+				new ArrayList<NodeRef>(CophylogenyModel.Utils.getContemporaneousLineages(tree, 1.2)));
+		Assert.assertEquals(Arrays.asList(TestUtils.A, TestUtils.B, TestUtils.C, TestUtils.D, TestUtils.E),
+				new ArrayList<NodeRef>(CophylogenyModel.Utils.getContemporaneousLineages(tree, 0.5)));
+	}
+
 	@Test
 	public void testGetContemporaneousLineageCount() {
 		Assert.assertTrue(CophylogenyModel.Utils.getContemporaneousLineageCount(tree, tree.getNodeHeight(TestUtils.CDE)) ==
@@ -0,0 +1,183 @@
+/**
+ * DelayedAcceptanceOperatorTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.DelayedAcceptanceOperator;
+import org.ithinktree.becky.HostSwitchOperator;
+import org.ithinktree.becky.NoExtinctionCophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+
+/**
+ * Runs host-switch moves through the delayed acceptance operator in a chain that stores, restores and accepts
+ * the likelihood as the MCMC does, against a flat prior.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class DelayedAcceptanceOperatorTest {
+
+	private static final int STEPS = 5000;
+
+	private static final int FAILED = 0;
+	private static final int REJECTED = 1;
+	private static final int ACCEPTED = 2;
+
+	/**
+	 * Counts the calculations of the likelihood from its partials.
+	 */
+	@SuppressWarnings("serial")
+	private static class CountingCophylogenyLikelihood extends CophylogenyLikelihood {
+
+		private int calculationCount = 0;
+
+		public CountingCophylogenyLikelihood(final Tree hostTree, final TreeModel symbiontTree, final SimpleCophylogenyModel model) {
+			super(hostTree, symbiontTree, model, new SimpleBranchRates(1.0), new Parameter.Default(2.5), "host.nodeRef", "testCophylogenyLikelihood");
+		}
+
+		@Override
+		protected double calculateLogLikelihood() {
+			++calculationCount;
+			return super.calculateLogLikelihood();
+		}
+
+	}
+
+	private Tree hostTree;
+	private TreeModel symbiontTree;
+	private CountingCophylogenyLikelihood likelihood;
+
+	private void createLikelihood() {
+		hostTree = TestUtils.DEFAULT_TREE;
+		symbiontTree = new TreeModel(TestUtils.treeFromNewick("((d:0.6,e:0.6):0.6,(b:0.5,c:0.5):0.7);", true));
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), Units.Type.YEARS);
+		likelihood = new CountingCophylogenyLikelihood(hostTree, symbiontTree, model);
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i)
+			likelihood.setStatesForNode(symbiontTree.getExternalNode(i), getNode(hostTree, symbiontTree.getTaxonId(i).toUpperCase()));
+		likelihood.setStatesForNode(getNode(symbiontTree, "d", "e"), TestUtils.D);
+		likelihood.setStatesForNode(getNode(symbiontTree, "b", "c"), TestUtils.B);
+		likelihood.setStatesForNode(symbiontTree.getRoot(), TestUtils.A);
+		Assert.assertFalse(Double.isInfinite(likelihood.getLogLikelihood()));
+	}
+
+	private static NodeRef getNode(final Tree tree, final String... taxa) {
+		return Tree.Utils.getCommonAncestorNode(tree, new HashSet<String>(Arrays.asList(taxa)));
+	}
+
+	private HostSwitchOperator createHostSwitchOperator() {
+		return new HostSwitchOperator(hostTree, symbiontTree, likelihood, false, true, 1.0);
+	}
+
+	/**
+	 * One step of the chain, which only draws a random number when the move is not accepted outright.
+	 * @param alwaysAccepted whether the second stage must accept, so need not draw
+	 */
+	private int step(final MCMCOperator operator, final boolean alwaysAccepted) {
+
+		final double logLikelihood = likelihood.getLogLikelihood();
+		likelihood.storeModelState();
+		final double logHastingsRatio;
+		try {
+			logHastingsRatio = operator.operate();
+		} catch (OperatorFailedException e) {
+			likelihood.restoreModelState();
+			operator.reject();
+			return FAILED;
+		}
+
+		final double logRatio = likelihood.getLogLikelihood() - logLikelihood + logHastingsRatio;
+		if (alwaysAccepted) Assert.assertEquals(0.0, logRatio, 1E-9);
+		if (alwaysAccepted || logRatio >= 0.0 || Math.log(MathUtils.nextDouble()) < logRatio) {
+			likelihood.acceptModelState();
+			operator.accept(0.0);
+			return ACCEPTED;
+		}
+		likelihood.restoreModelState();
+		operator.reject();
+		return REJECTED;
+	}
+
+	private String getMappingKey() {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i) {
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			key.append(likelihood.getStatesForNode(node).getNumber()).append('@').append(symbiontTree.getNodeHeight(node)).append(' ');
+		}
+		return key.toString();
+	}
+
+	@Test
+	public void testExactScreenReproducesMetropolisHastings() {
+
+		// Plain Metropolis-Hastings
+		createLikelihood();
+		MathUtils.setSeed(666);
+		final MCMCOperator hostSwitchOperator = createHostSwitchOperator();
+		final int[] outcomes = new int[STEPS];
+		final String[] states = new String[STEPS];
+		for (int k = 0; k < STEPS; ++k) {
+			outcomes[k] = step(hostSwitchOperator, false);
+			states[k] = getMappingKey();
+		}
+
+		// Screened by the full likelihood itself, at no cost, so the second stage accepts every survivor
+		createLikelihood();
+		MathUtils.setSeed(666);
+		final DelayedAcceptanceOperator operator = new DelayedAcceptanceOperator(createHostSwitchOperator(), likelihood, 1.0);
+		int rejectedCount = 0;
+		int acceptedCount = 0;
+		for (int k = 0; k < STEPS; ++k) {
+			final int screenedOutCount = operator.getScreenedOutCount();
+			int outcome = step(operator, true);
+			if (outcome == FAILED && operator.getScreenedOutCount() > screenedOutCount) outcome = REJECTED;
+			Assert.assertEquals("Step " + k, outcomes[k], outcome);
+			Assert.assertEquals("Step " + k, states[k], getMappingKey());
+			if (outcome == REJECTED) ++rejectedCount;
+			if (outcome == ACCEPTED) ++acceptedCount;
+		}
+		Assert.assertTrue(rejectedCount > 0);
+		Assert.assertTrue(acceptedCount > 0);
+	}
+
+	@Test
+	public void testScreenedOutIsNeverEvaluated() {
+
+		createLikelihood();
+		MathUtils.setSeed(666);
+		final DelayedAcceptanceOperator operator = new DelayedAcceptanceOperator(createHostSwitchOperator(), new NoExtinctionCophylogenyLikelihood(hostTree, symbiontTree, likelihood), 1.0);
+		int evaluatedCount = 0;
+		for (int k = 0; k < STEPS; ++k) {
+			final int screenedOutCount = operator.getScreenedOutCount();
+			final int calculationCount = likelihood.calculationCount;
+			step(operator, false);
+			if (operator.getScreenedOutCount() > screenedOutCount)
+				Assert.assertEquals("Step " + k, calculationCount, likelihood.calculationCount);
+			else
+				++evaluatedCount;
+		}
+		Assert.assertTrue(operator.getScreenedOutCount() > 0);
+		Assert.assertTrue(evaluatedCount > 0);
+	}
+
+}
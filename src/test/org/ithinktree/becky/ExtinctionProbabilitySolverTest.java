@@ -0,0 +1,132 @@
+/**
+ * ExtinctionProbabilitySolverTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import org.ithinktree.becky.ExtinctionProbabilitySolver;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.ithinktree.becky.StochasticLikelihoodNoDescendants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class ExtinctionProbabilitySolverTest {
+
+	private static final int ITERATIONS = 20000;
+
+	private Tree tree = TestUtils.DEFAULT_TREE;
+	private ExtinctionProbabilitySolver solver = new ExtinctionProbabilitySolver();
+
+	@Test
+	public void testLossOnly() {
+		// Without duplications or host-switches a symbiont is lost along a host lineage or within both host subtrees
+		final double lossRate = 0.7;
+		final double[] bottom = new double[tree.getNodeCount()];
+		final double[] top = new double[tree.getNodeCount()];
+		solver.solve(tree, 0.0, 0.0, lossRate, bottom, top);
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			final NodeRef node = tree.getNode(i);
+			Assert.assertEquals(lossBelow(node, lossRate), bottom[i], 1E-9);
+			if (!tree.isRoot(node))
+				Assert.assertEquals(1 - Math.exp(-lossRate * tree.getBranchLength(node)) * (1 - lossBelow(node, lossRate)), top[i], 1E-9);
+		}
+	}
+
+	private double lossBelow(final NodeRef node, final double lossRate) {
+		if (tree.isExternal(node)) return 0.0;
+		double p = 1.0;
+		for (int i = 0; i < 2; ++i) {
+			final NodeRef child = tree.getChild(node, i);
+			p *= 1 - Math.exp(-lossRate * tree.getBranchLength(child)) * (1 - lossBelow(child, lossRate));
+		}
+		return p;
+	}
+
+	@Test
+	public void testBirthDeath() {
+		// Without host-switches every lineage is a linear birth-death process on its own
+		final double duplicationRate = 1.5;
+		final double lossRate = 0.6;
+		final double[] bottom = new double[tree.getNodeCount()];
+		final double[] top = new double[tree.getNodeCount()];
+		solver.solve(tree, duplicationRate, 0.0, lossRate, bottom, top);
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			final NodeRef node = tree.getNode(i);
+			Assert.assertEquals(birthDeathBelow(node, duplicationRate, lossRate), bottom[i], 1E-7);
+			if (!tree.isRoot(node))
+				Assert.assertEquals(birthDeath(birthDeathBelow(node, duplicationRate, lossRate), tree.getBranchLength(node), duplicationRate, lossRate), top[i], 1E-7);
+		}
+	}
+
+	/**
+	 * The probability of no descendants after a time t of a birth-death process, given the probability e at its end.
+	 */
+	private static double birthDeath(final double e, final double t, final double birthRate, final double deathRate) {
+		final double decay = (deathRate - birthRate * e) * Math.exp(-(birthRate - deathRate) * t);
+		return (deathRate * (1 - e) - decay) / (birthRate * (1 - e) - decay);
+	}
+
+	private double birthDeathBelow(final NodeRef node, final double duplicationRate, final double lossRate) {
+		if (tree.isExternal(node)) return 0.0;
+		double p = 1.0;
+		for (int i = 0; i < 2; ++i) {
+			final NodeRef child = tree.getChild(node, i);
+			p *= birthDeath(birthDeathBelow(child, duplicationRate, lossRate), tree.getBranchLength(child), duplicationRate, lossRate);
+		}
+		return p;
+	}
+
+	@Test
+	public void testMatchesSimulation() {
+		final double duplicationRate = 1.5;
+		final double hostSwitchRate = 0.8;
+		final double lossRate = 0.6;
+		final double[] bottom = new double[tree.getNodeCount()];
+		final double[] top = new double[tree.getNodeCount()];
+		solver.solve(tree, duplicationRate, hostSwitchRate, lossRate, bottom, top);
+
+		MathUtils.setSeed(666);
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(duplicationRate), new Parameter.Default(hostSwitchRate), new Parameter.Default(lossRate), Units.Type.YEARS);
+		final StochasticLikelihoodNoDescendants estimator = new StochasticLikelihoodNoDescendants(model, ITERATIONS);
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			final NodeRef node = tree.getNode(i);
+			assertBinomial("Bottom of " + i, bottom[i], estimator.likelihoodNoDescendants(tree, node, tree.getNodeHeight(node), 1.0));
+			if (!tree.isRoot(node))
+				assertBinomial("Top of " + i, top[i], estimator.likelihoodNoDescendants(tree, node, tree.getNodeHeight(tree.getParent(node)), 1.0));
+		}
+	}
+
+	/**
+	 * Within four binomial standard errors, so the check is tight but practically never fails by chance.
+	 */
+	private static void assertBinomial(final String message, final double p, final double estimate) {
+		Assert.assertEquals(message, p, estimate, 4 * Math.sqrt(p * (1 - p) / ITERATIONS) + 1E-9);
+	}
+
+	@Test
+	public void testProbabilities() {
+		final double[] bottom = new double[tree.getNodeCount()];
+		final double[] top = new double[tree.getNodeCount()];
+		solver.solve(tree, 1.5, 0.8, 0.6, bottom, top);
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			Assert.assertTrue(bottom[i] >= 0.0 && bottom[i] <= 1.0);
+			Assert.assertTrue(top[i] >= 0.0 && top[i] <= 1.0);
+		}
+		Assert.assertEquals(0.0, bottom[TestUtils.A.getNumber()], 0.0);
+	}
+
+}
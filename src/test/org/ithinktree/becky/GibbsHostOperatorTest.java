@@ -0,0 +1,164 @@
+/**
+ * GibbsHostOperatorTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.GibbsHostOperator;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+
+/**
+ * Checks the conditional distribution that the Gibbs host operator samples from against one found by
+ * recalculating the whole likelihood for every host of every internal node of a small cophylogeny.
+ * A wrong conditional would go unnoticed in a chain, as every move is accepted.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class GibbsHostOperatorTest {
+
+	private static final int MOVES = 100000;
+
+	private Tree hostTree;
+	private TreeModel symbiontTree;
+	private CophylogenyLikelihood likelihood;
+	private NodeRef[] mapping;
+
+	@Before
+	public void before() {
+		// Duplications and host-switches are common enough that most nodes could be on several hosts
+		hostTree = TestUtils.DEFAULT_TREE;
+		symbiontTree = new TreeModel(TestUtils.treeFromNewick("((d:0.6,e:0.6):0.6,(b:0.5,c:0.5):0.7);", true));
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), Units.Type.YEARS);
+		likelihood = new CophylogenyLikelihood(hostTree, symbiontTree, model, new SimpleBranchRates(1.0), new Parameter.Default(2.5), "host.nodeRef", "testCophylogenyLikelihood");
+		mapping = new NodeRef[symbiontTree.getNodeCount()];
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i) {
+			final NodeRef tip = symbiontTree.getExternalNode(i);
+			mapping[tip.getNumber()] = getNode(hostTree, symbiontTree.getTaxonId(i).toUpperCase());
+		}
+		mapping[getNode(symbiontTree, "d", "e").getNumber()] = TestUtils.D;
+		mapping[getNode(symbiontTree, "b", "c").getNumber()] = TestUtils.B;
+		mapping[symbiontTree.getRoot().getNumber()] = TestUtils.A;
+		for (int i = 0; i < symbiontTree.getNodeCount(); ++i)
+			likelihood.setStatesForNode(symbiontTree.getNode(i), mapping[i]);
+		Assert.assertFalse(Double.isInfinite(likelihood.getLogLikelihood()));
+	}
+
+	private static NodeRef getNode(final Tree tree, final String... taxa) {
+		return Tree.Utils.getCommonAncestorNode(tree, new HashSet<String>(Arrays.asList(taxa)));
+	}
+
+	/**
+	 * @return the probability of each host of a node given the hosts of the others, by recalculating everything
+	 */
+	private double[] enumerateConditional(final NodeRef node) {
+		final double[] logLikelihoods = new double[hostTree.getNodeCount()];
+		double max = Double.NEGATIVE_INFINITY;
+		for (int h = 0; h < hostTree.getNodeCount(); ++h) {
+			final NodeRef host = hostTree.getNode(h);
+			if (CophylogenyModel.Utils.isContemporaneous(hostTree, host, symbiontTree.getNodeHeight(node))) {
+				likelihood.setStatesForNode(node, host);
+				likelihood.makeDirty();
+				logLikelihoods[h] = likelihood.getLogLikelihood();
+			} else {
+				logLikelihoods[h] = Double.NEGATIVE_INFINITY;
+			}
+			max = Math.max(max, logLikelihoods[h]);
+		}
+		restoreMapping();
+		double sum = 0.0;
+		for (int h = 0; h < logLikelihoods.length; ++h) {
+			logLikelihoods[h] = Math.exp(logLikelihoods[h] - max);
+			sum += logLikelihoods[h];
+		}
+		for (int h = 0; h < logLikelihoods.length; ++h)
+			logLikelihoods[h] /= sum;
+		return logLikelihoods;
+	}
+
+	private void restoreMapping() {
+		for (int i = 0; i < symbiontTree.getNodeCount(); ++i) {
+			if (!mapping[i].equals(likelihood.getStatesForNode(symbiontTree.getNode(i))))
+				likelihood.setStatesForNode(symbiontTree.getNode(i), mapping[i]);
+		}
+		likelihood.makeDirty();
+	}
+
+	@Test
+	public void testLogLikelihoodForState() {
+		final double logLikelihood = likelihood.getLogLikelihood();
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i) {
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			for (int h = 0; h < hostTree.getNodeCount(); ++h) {
+				final NodeRef host = hostTree.getNode(h);
+				if (!CophylogenyModel.Utils.isContemporaneous(hostTree, host, symbiontTree.getNodeHeight(node))) continue;
+				final double partial = likelihood.calculateLogLikelihoodForState(node, host);
+				Assert.assertEquals(logLikelihood, likelihood.getLogLikelihood(), 0.0);
+				likelihood.setStatesForNode(node, host);
+				likelihood.makeDirty();
+				final double full = likelihood.getLogLikelihood();
+				restoreMapping();
+				if (Double.isInfinite(full))
+					Assert.assertEquals(full, partial, 0.0);
+				else
+					Assert.assertEquals(full, partial, 1E-9);
+			}
+		}
+	}
+
+	@Test
+	public void testConditionalDistribution() {
+
+		final int nodeCount = symbiontTree.getInternalNodeCount();
+		final double[][] expected = new double[nodeCount][];
+		for (int i = 0; i < nodeCount; ++i) {
+			// Each node is picked with probability 1 / nodeCount, and otherwise keeps its host
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			expected[i] = enumerateConditional(node);
+			for (int h = 0; h < expected[i].length; ++h)
+				expected[i][h] /= nodeCount;
+			expected[i][mapping[node.getNumber()].getNumber()] += 1.0 - 1.0 / nodeCount;
+		}
+
+		MathUtils.setSeed(666);
+		final GibbsHostOperator operator = new GibbsHostOperator(hostTree, symbiontTree, likelihood, 1.0);
+		final int[][] visits = new int[nodeCount][hostTree.getNodeCount()];
+		for (int k = 0; k < MOVES; ++k) {
+			try {
+				Assert.assertEquals(0.0, operator.doOperation(), 0.0);
+			} catch (OperatorFailedException e) {
+				Assert.fail(e.getMessage());
+			}
+			for (int i = 0; i < nodeCount; ++i)
+				++visits[i][likelihood.getStatesForNode(symbiontTree.getInternalNode(i)).getNumber()];
+			restoreMapping();
+		}
+
+		for (int i = 0; i < nodeCount; ++i) {
+			for (int h = 0; h < hostTree.getNodeCount(); ++h)
+				Assert.assertEquals("Node " + i + ", host " + h, expected[i][h], visits[i][h] / (double) MOVES, 0.005);
+		}
+	}
+
+}
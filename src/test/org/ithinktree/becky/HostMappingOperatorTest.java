@@ -0,0 +1,148 @@
+/**
+ * HostMappingOperatorTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.HostMappingOperator;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+
+/**
+ * Checks that the host mapping operator proposes every mapping of the internal symbiont nodes with its
+ * probability under the target, found by enumerating every mapping of a small cophylogeny. Then the
+ * Hastings ratio of a move is one, which is what the operator returns.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class HostMappingOperatorTest {
+
+	private static final int MOVES = 10000;
+
+	private Tree hostTree;
+	private TreeModel symbiontTree;
+	private CophylogenyLikelihood likelihood;
+
+	@Before
+	public void before() {
+		hostTree = TestUtils.DEFAULT_TREE;
+		symbiontTree = new TreeModel(TestUtils.treeFromNewick("((d:0.6,e:0.6):0.6,(b:0.5,c:0.5):0.7);", true));
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), Units.Type.YEARS);
+		likelihood = new CophylogenyLikelihood(hostTree, symbiontTree, model, new SimpleBranchRates(1.0), new Parameter.Default(2.5), "host.nodeRef", "testCophylogenyLikelihood");
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i)
+			likelihood.setStatesForNode(symbiontTree.getExternalNode(i), getNode(hostTree, symbiontTree.getTaxonId(i).toUpperCase()));
+		likelihood.setStatesForNode(getNode(symbiontTree, "d", "e"), TestUtils.D);
+		likelihood.setStatesForNode(getNode(symbiontTree, "b", "c"), TestUtils.B);
+		likelihood.setStatesForNode(symbiontTree.getRoot(), TestUtils.A);
+	}
+
+	private static NodeRef getNode(final Tree tree, final String... taxa) {
+		return Tree.Utils.getCommonAncestorNode(tree, new HashSet<String>(Arrays.asList(taxa)));
+	}
+
+	private String getMappingKey() {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i)
+			key.append(likelihood.getStatesForNode(symbiontTree.getInternalNode(i)).getNumber()).append(' ');
+		return key.toString();
+	}
+
+	/**
+	 * @return the probability of every mapping of the internal nodes with a finite likelihood, by its key
+	 */
+	private Map<String,Double> enumerateMappings() {
+
+		final int nodeCount = symbiontTree.getInternalNodeCount();
+		final List<List<NodeRef>> hosts = new ArrayList<List<NodeRef>>(nodeCount);
+		for (int i = 0; i < nodeCount; ++i) {
+			final List<NodeRef> nodeHosts = new ArrayList<NodeRef>();
+			for (int h = 0; h < hostTree.getNodeCount(); ++h) {
+				if (CophylogenyModel.Utils.isContemporaneous(hostTree, hostTree.getNode(h), symbiontTree.getNodeHeight(symbiontTree.getInternalNode(i))))
+					nodeHosts.add(hostTree.getNode(h));
+			}
+			hosts.add(nodeHosts);
+		}
+
+		final Map<String,Double> likelihoods = new HashMap<String,Double>();
+		double sum = 0.0;
+		final int[] indices = new int[nodeCount];
+		while (true) {
+			for (int i = 0; i < nodeCount; ++i)
+				likelihood.setStatesForNode(symbiontTree.getInternalNode(i), hosts.get(i).get(indices[i]));
+			likelihood.makeDirty();
+			final double l = Math.exp(likelihood.getLogLikelihood());
+			if (l > 0.0) {
+				likelihoods.put(getMappingKey(), l);
+				sum += l;
+			}
+			int i = 0;
+			while (i < nodeCount && ++indices[i] == hosts.get(i).size()) indices[i++] = 0;
+			if (i == nodeCount) break;
+		}
+		for (final Map.Entry<String,Double> entry : likelihoods.entrySet())
+			entry.setValue(entry.getValue() / sum);
+		return likelihoods;
+	}
+
+	@Test
+	public void testProposalDistribution() throws OperatorFailedException {
+
+		final Map<String,Double> expected = enumerateMappings();
+		Assert.assertTrue(expected.size() > 10);
+
+		MathUtils.setSeed(666);
+		final HostMappingOperator operator = new HostMappingOperator(hostTree, symbiontTree, likelihood, 1.0);
+		final Map<String,Integer> visits = new HashMap<String,Integer>();
+		for (int k = 0; k < MOVES; ++k) {
+			Assert.assertEquals(0.0, operator.doOperation(), 0.0);
+			final String key = getMappingKey();
+			Assert.assertTrue("Impossible mapping " + key, expected.containsKey(key));
+			final Integer count = visits.get(key);
+			visits.put(key, count == null ? 1 : count + 1);
+		}
+
+		for (final Map.Entry<String,Double> entry : expected.entrySet()) {
+			final Integer count = visits.get(entry.getKey());
+			Assert.assertEquals("Mapping " + entry.getKey(), entry.getValue(), (count == null ? 0 : count) / (double) MOVES, 0.005);
+		}
+	}
+
+	@Test
+	public void testProposedMappingIsEvaluated() throws OperatorFailedException {
+		// The likelihood after a move must be that of the proposed mapping, as if calculated from scratch
+		MathUtils.setSeed(666);
+		final HostMappingOperator operator = new HostMappingOperator(hostTree, symbiontTree, likelihood, 1.0);
+		for (int k = 0; k < 100; ++k) {
+			operator.doOperation();
+			final double logLikelihood = likelihood.getLogLikelihood();
+			likelihood.makeDirty();
+			Assert.assertEquals(likelihood.getLogLikelihood(), logLikelihood, 1E-9);
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+/**
+ * HostSwitchOperatorTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.HostSwitchOperator;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+
+/**
+ * Runs the feasible host-switch operator on its own against a flat target, under which the host of the symbiont
+ * root should be visited in proportion to the length of the part of its lineage that the root fits in, and checks
+ * that the default operator never redraws a height that its reverse move could not return from.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class HostSwitchOperatorTest {
+
+	private static final double ORIGIN_HEIGHT = 2.5;
+	private static final int STEPS = 200000;
+
+	private Tree host;
+	private TreeModel symbiont;
+	private CophylogenyLikelihood likelihood;
+	private HostSwitchOperator operator;
+
+	@Before
+	public void before() {
+		MathUtils.setSeed(666);
+		host = TestUtils.DEFAULT_TREE;
+		symbiont = new TreeModel(TestUtils.treeFromNewick("(d:1.2,e:1.2);", true));
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(1.0), Units.Type.YEARS);
+		likelihood = new CophylogenyLikelihood(host, symbiont, model, new SimpleBranchRates(1.0), new Parameter.Default(ORIGIN_HEIGHT), "host.nodeRef", "testCophylogenyLikelihood");
+		final NodeRef root = symbiont.getRoot();
+		final Set<String> taxa = new HashSet<String>();
+		for (int i = 0; i < 2; ++i) {
+			final NodeRef tip = symbiont.getChild(root, i);
+			taxa.clear();
+			taxa.add(symbiont.getTaxonId(tip.getNumber()).toUpperCase());
+			likelihood.setStatesForNode(tip, Tree.Utils.getCommonAncestorNode(host, taxa));
+		}
+		likelihood.setStatesForNode(root, TestUtils.DE);
+		operator = new HostSwitchOperator(host, symbiont, likelihood, false, true, 1.0);
+	}
+
+	@Test
+	public void testHastingsRatio() throws OperatorFailedException {
+		// From DE, the only host with a shorter stretch of lineage than BCDE is the root, so try until BCDE is proposed
+		final NodeRef root = symbiont.getRoot();
+		for (int i = 0; i < 1000; ++i) {
+			symbiont.setNodeHeight(root, 1.2);
+			likelihood.setStatesForNode(root, TestUtils.DE);
+			final double logHastingsRatio;
+			try {
+				logHastingsRatio = operator.doOperation();
+			} catch (OperatorFailedException e) {
+				continue;
+			}
+			if (!likelihood.getStatesForNode(root).equals(TestUtils.BCDE)) continue;
+			// Forward density 1 / (1.875 - 1.75) and reverse density 1 / (1.5 - 1.0)
+			Assert.assertEquals(Math.log(0.125 / 0.5), logHastingsRatio, 1E-12);
+			return;
+		}
+		Assert.fail("BCDE was never proposed");
+	}
+
+	@Test
+	public void testDefaultMoveIsReversible() {
+		// On the tip lineage A, any height redrawn below 1.875 would be within A again
+		final HostSwitchOperator defaultOperator = new HostSwitchOperator(host, symbiont, likelihood, false, 1.0);
+		final NodeRef root = symbiont.getRoot();
+		int redrawnCount = 0;
+		int irreversibleCount = 0;
+		for (int i = 0; i < 1000; ++i) {
+			symbiont.setNodeHeight(root, 1.2);
+			likelihood.setStatesForNode(root, TestUtils.A);
+			try {
+				defaultOperator.doOperation();
+			} catch (OperatorFailedException e) {
+				if (e.getMessage().equals("Irreversible change of state")) ++irreversibleCount;
+				continue;
+			}
+			final double height = symbiont.getNodeHeight(root);
+			if (height == 1.2) continue;
+			Assert.assertFalse("Height " + height, CophylogenyModel.Utils.isContemporaneous(host, TestUtils.A, height));
+			++redrawnCount;
+		}
+		Assert.assertTrue(irreversibleCount > 0);
+		Assert.assertTrue(redrawnCount > 0);
+	}
+
+	@Test
+	public void testStationaryDistribution() {
+
+		final NodeRef root = symbiont.getRoot();
+		symbiont.setNodeHeight(root, 1.2);
+		final int[] visits = new int[host.getNodeCount()];
+		for (int i = 0; i < STEPS; ++i) {
+			final NodeRef currentHost = likelihood.getStatesForNode(root);
+			final double currentHeight = symbiont.getNodeHeight(root);
+			try {
+				final double logHastingsRatio = operator.doOperation();
+				if (Math.log(MathUtils.nextDouble()) >= logHastingsRatio) {
+					likelihood.setStatesForNode(root, currentHost);
+					symbiont.setNodeHeight(root, currentHeight);
+				}
+			} catch (OperatorFailedException e) {
+				// Stay put
+			}
+			++visits[likelihood.getStatesForNode(root).getNumber()];
+		}
+
+		// The part of each host lineage between the symbiont tips and the origin, which sum to 8.625
+		double total = 0.0;
+		final double[] lengths = new double[host.getNodeCount()];
+		for (int i = 0; i < host.getNodeCount(); ++i) {
+			final NodeRef node = host.getNode(i);
+			lengths[i] = (host.isRoot(node) ? ORIGIN_HEIGHT : host.getNodeHeight(host.getParent(node))) - host.getNodeHeight(node);
+			total += lengths[i];
+		}
+		Assert.assertEquals(8.625, total, 1E-12);
+		for (int i = 0; i < host.getNodeCount(); ++i)
+			Assert.assertEquals("Host " + i, lengths[i] / total, visits[i] / (double) STEPS, 0.005);
+	}
+
+}
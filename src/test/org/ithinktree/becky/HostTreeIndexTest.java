@@ -0,0 +1,107 @@
+/**
+ * HostTreeIndexTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.HashSet;
+
+import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.CophylogenyModel.Utils.NodalRelationship;
+import org.ithinktree.becky.CophylogenyModel.Utils.Relationship;
+import org.ithinktree.becky.HostTreeIndex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class HostTreeIndexTest {
+
+	private Tree tree = TestUtils.DEFAULT_TREE;
+	private HostTreeIndex index = new HostTreeIndex(tree);
+	
+	@Test
+	public void testDetermineRelationship() {
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			for (int j = 0; j < tree.getNodeCount(); ++j) {
+				final NodeRef self = tree.getNode(i);
+				final NodeRef relation = tree.getNode(j);
+				final NodalRelationship expected = CophylogenyModel.Utils.determineRelationship(tree, self, relation);
+				final NodalRelationship actual = index.determineRelationship(self, relation);
+				Assert.assertEquals(expected.relationship, actual.relationship);
+				Assert.assertEquals(expected.generations, actual.generations);
+				Assert.assertArrayEquals(expected.lostLineages, actual.lostLineages);
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDetermineRelationshipWithoutHost() {
+		index.determineRelationship(null, TestUtils.A);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDetermineRelationshipWithoutRelation() {
+		index.determineRelationship(TestUtils.A, null);
+	}
+	
+	@Test
+	public void testLostLineagesToTime() {
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			for (int j = 0; j < tree.getNodeCount(); ++j) {
+				final NodeRef node = tree.getNode(i);
+				final double height = tree.getNodeHeight(tree.getNode(j));
+				Assert.assertArrayEquals(CophylogenyModel.Utils.lostLineagesToTime(tree, node, height), index.lostLineagesToTime(node, height));
+			}
+		}
+	}
+	
+	@Test
+	public void testContemporaneousLineages() {
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			final double height = tree.getNodeHeight(tree.getNode(i));
+			for (double h : new double[]{height - 0.0625, height, height + 0.0625}) {
+				Assert.assertEquals(CophylogenyModel.Utils.getContemporaneousLineageCount(tree, h), index.getContemporaneousLineageCount(h));
+				Assert.assertEquals(CophylogenyModel.Utils.getContemporaneousLineages(tree, h), new HashSet<NodeRef>(index.getContemporaneousLineages(h)));
+			}
+		}
+	}
+	
+	@Test
+	public void testGetLineagesInTimeRange() {
+		for (int i = 0; i < tree.getNodeCount(); ++i) {
+			for (int j = 0; j < tree.getNodeCount(); ++j) {
+				final double start = tree.getNodeHeight(tree.getNode(i)) + 0.0625;
+				final double stop = tree.getNodeHeight(tree.getNode(j));
+				if (start >= stop)
+					Assert.assertEquals(CophylogenyModel.Utils.getLineagesInTimeRange(tree, start, stop), index.getLineagesInTimeRange(start, stop));
+			}
+		}
+	}
+	
+	@Test
+	public void testGetMostRecentCommonAncestor() {
+		Assert.assertEquals(TestUtils.BCDE, index.getMostRecentCommonAncestor(TestUtils.B, TestUtils.DE));
+		Assert.assertEquals(TestUtils.CDE, index.getMostRecentCommonAncestor(TestUtils.C, TestUtils.DE));
+		Assert.assertEquals(tree.getRoot(), index.getMostRecentCommonAncestor(TestUtils.A, TestUtils.DE));
+		Assert.assertEquals(TestUtils.DE, index.getMostRecentCommonAncestor(TestUtils.DE, TestUtils.DE));
+	}
+	
+	@Test
+	public void testIsAncestor() {
+		Assert.assertTrue(index.isAncestor(TestUtils.BCDE, TestUtils.DE));
+		Assert.assertFalse(index.isAncestor(TestUtils.DE, TestUtils.BCDE));
+		Assert.assertFalse(index.isAncestor(TestUtils.B, TestUtils.DE));
+		Assert.assertEquals(Relationship.COUSIN, index.getRelationship(TestUtils.B, TestUtils.DE));
+	}
+	
+}
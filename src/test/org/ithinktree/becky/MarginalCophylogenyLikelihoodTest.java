@@ -0,0 +1,175 @@
+/**
+ * MarginalCophylogenyLikelihoodTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.CophylogenyModel;
+import org.ithinktree.becky.MarginalCophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * Checks the likelihood summed over the hosts of the internal symbiont nodes against a brute-force sum of
+ * the mapped likelihood over every mapping of a small cophylogeny, and the mappings it draws against the
+ * normalised terms of that sum, drawn without touching the global random number stream.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class MarginalCophylogenyLikelihoodTest {
+
+	private static final int DRAWS = 10000;
+
+	private Tree hostTree;
+	private TreeModel symbiontTree;
+	private TreeModel mappedSymbiontTree;
+	private CophylogenyLikelihood mappedLikelihood;
+	private MarginalCophylogenyLikelihood marginalLikelihood;
+
+	@Before
+	public void before() {
+		MathUtils.setSeed(666); // Also seeds the draws of mappings
+		final String newick = "((d:0.6,e:0.6):0.6,(b:0.5,c:0.5):0.7);";
+		hostTree = TestUtils.DEFAULT_TREE;
+		symbiontTree = new TreeModel(TestUtils.treeFromNewick(newick, true));
+		mappedSymbiontTree = new TreeModel(TestUtils.treeFromNewick(newick, true));
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), Units.Type.YEARS);
+		final Parameter originHeight = new Parameter.Default(2.5);
+		marginalLikelihood = new MarginalCophylogenyLikelihood(hostTree, symbiontTree, model, new SimpleBranchRates(1.0), originHeight, "host.nodeRef", "testMarginalCophylogenyLikelihood");
+		mappedLikelihood = new CophylogenyLikelihood(hostTree, mappedSymbiontTree, model, new SimpleBranchRates(1.0), originHeight, "host.nodeRef", "testCophylogenyLikelihood");
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i)
+			setTipHost(i, getNode(hostTree, symbiontTree.getTaxonId(i).toUpperCase()));
+	}
+
+	private static NodeRef getNode(final Tree tree, final String... taxa) {
+		return Tree.Utils.getCommonAncestorNode(tree, new HashSet<String>(Arrays.asList(taxa)));
+	}
+
+	private void setTipHost(final int i, final NodeRef host) {
+		marginalLikelihood.setStatesForNode(symbiontTree.getExternalNode(i), host);
+		mappedLikelihood.setStatesForNode(mappedSymbiontTree.getExternalNode(i), host);
+	}
+
+	private String getMappingKey(final CophylogenyLikelihood likelihood, final Tree symbiontTree) {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < symbiontTree.getInternalNodeCount(); ++i)
+			key.append(likelihood.getStatesForNode(symbiontTree.getInternalNode(i)).getNumber()).append(' ');
+		return key.toString();
+	}
+
+	/**
+	 * @return the likelihood of every mapping of the internal nodes with a finite likelihood, by its key
+	 */
+	private Map<String,Double> enumerateMappings() {
+
+		final int nodeCount = mappedSymbiontTree.getInternalNodeCount();
+		final List<List<NodeRef>> hosts = new ArrayList<List<NodeRef>>(nodeCount);
+		for (int i = 0; i < nodeCount; ++i) {
+			final List<NodeRef> nodeHosts = new ArrayList<NodeRef>();
+			for (int h = 0; h < hostTree.getNodeCount(); ++h) {
+				if (CophylogenyModel.Utils.isContemporaneous(hostTree, hostTree.getNode(h), mappedSymbiontTree.getNodeHeight(mappedSymbiontTree.getInternalNode(i))))
+					nodeHosts.add(hostTree.getNode(h));
+			}
+			hosts.add(nodeHosts);
+		}
+
+		final Map<String,Double> likelihoods = new HashMap<String,Double>();
+		final int[] indices = new int[nodeCount];
+		while (true) {
+			for (int i = 0; i < nodeCount; ++i)
+				mappedLikelihood.setStatesForNode(mappedSymbiontTree.getInternalNode(i), hosts.get(i).get(indices[i]));
+			mappedLikelihood.makeDirty();
+			final double l = Math.exp(mappedLikelihood.getLogLikelihood());
+			if (l > 0.0) likelihoods.put(getMappingKey(mappedLikelihood, mappedSymbiontTree), l);
+			int i = 0;
+			while (i < nodeCount && ++indices[i] == hosts.get(i).size()) indices[i++] = 0;
+			if (i == nodeCount) break;
+		}
+		return likelihoods;
+	}
+
+	private static double sum(final Map<String,Double> likelihoods) {
+		double sum = 0.0;
+		for (final double l : likelihoods.values()) sum += l;
+		return sum;
+	}
+
+	@Test
+	public void testMatchesEnumeration() {
+		final double expected = Math.log(sum(enumerateMappings()));
+		Assert.assertFalse(Double.isInfinite(expected));
+		Assert.assertEquals(expected, marginalLikelihood.getLogLikelihood(), 1E-9);
+	}
+
+	@Test
+	public void testTipHostChange() {
+		// Only the changed tip and its ancestors are filtered again
+		Assert.assertFalse(Double.isInfinite(marginalLikelihood.getLogLikelihood()));
+		setTipHost(symbiontTree.getTaxonIndex("b"), TestUtils.C);
+		Assert.assertEquals(Math.log(sum(enumerateMappings())), marginalLikelihood.getLogLikelihood(), 1E-9);
+		final double logLikelihood = marginalLikelihood.getLogLikelihood();
+		marginalLikelihood.makeDirty();
+		Assert.assertEquals(logLikelihood, marginalLikelihood.getLogLikelihood(), 1E-9);
+	}
+
+	@Test
+	public void testSampledMappingsLeaveChainAlone() {
+		// The same draw from the global stream whether or not a mapping is drawn in between
+		MathUtils.setSeed(666);
+		marginalLikelihood.getLogLikelihood();
+		final double expected = MathUtils.nextDouble();
+		MathUtils.setSeed(666);
+		marginalLikelihood.makeDirty();
+		marginalLikelihood.getLogLikelihood();
+		Assert.assertNotNull(marginalLikelihood.getStatesForNode(symbiontTree.getRoot()));
+		Assert.assertEquals(expected, MathUtils.nextDouble(), 0.0);
+	}
+
+	@Test
+	public void testSampledMappings() {
+
+		final Map<String,Double> expected = enumerateMappings();
+		final double sum = sum(expected);
+		Assert.assertTrue(expected.size() > 10);
+
+		final Map<String,Integer> draws = new HashMap<String,Integer>();
+		for (int k = 0; k < DRAWS; ++k) {
+			// A fresh calculation forgets the last draw
+			marginalLikelihood.makeDirty();
+			marginalLikelihood.getLogLikelihood();
+			final String key = getMappingKey(marginalLikelihood, symbiontTree);
+			Assert.assertTrue("Impossible mapping " + key, expected.containsKey(key));
+			final Integer count = draws.get(key);
+			draws.put(key, count == null ? 1 : count + 1);
+		}
+
+		for (final Map.Entry<String,Double> entry : expected.entrySet()) {
+			final Integer count = draws.get(entry.getKey());
+			Assert.assertEquals("Mapping " + entry.getKey(), entry.getValue() / sum, (count == null ? 0 : count) / (double) DRAWS, 0.005);
+		}
+	}
+
+}
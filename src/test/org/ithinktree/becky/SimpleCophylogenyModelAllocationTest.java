@@ -0,0 +1,105 @@
+/**
+ * SimpleCophylogenyModelAllocationTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import java.lang.management.ManagementFactory;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.ithinktree.becky.tools.WorkloadGenerator;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.BranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+
+/**
+ * Checks that the term of a symbiont node does not allocate once its mapping has been classified, with the
+ * allocation counter of the thread, which HotSpot has and other JVMs may not.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class SimpleCophylogenyModelAllocationTest {
+
+	private static final int WARMUP_ROUNDS = 200;
+	private static final int MEASURED_ROUNDS = 200;
+
+	private com.sun.management.ThreadMXBean threadMXBean;
+	private Tree hostTree;
+	private TreeModel symbiontTree;
+	private SimpleCophylogenyModel model;
+	private CophylogenyLikelihood likelihood;
+	private BranchRates branchRates;
+
+	@Before
+	public void before() {
+
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		final WorkloadGenerator.Workload workload = new WorkloadGenerator().generate(50, WorkloadGenerator.Regime.BALANCED, 666);
+		hostTree = workload.hostTree;
+		symbiontTree = new TreeModel(workload.symbiontTree);
+		model = WorkloadGenerator.createModel(workload.regime);
+		branchRates = new SimpleBranchRates(1.0);
+		final double rootHeight = Math.max(hostTree.getNodeHeight(hostTree.getRoot()), symbiontTree.getNodeHeight(symbiontTree.getRoot()));
+		likelihood = new CophylogenyLikelihood(hostTree, symbiontTree, model, branchRates, new Parameter.Default(1.1 * rootHeight), "host", "testCophylogenyLikelihood");
+		for (int i = 0; i < symbiontTree.getNodeCount(); ++i) {
+			final Integer host = (Integer) workload.symbiontTree.getNodeAttribute(workload.symbiontTree.getNode(i), WorkloadGenerator.HOST_NODE_REF);
+			likelihood.setStatesForNode(symbiontTree.getNode(i), hostTree.getNode(host));
+		}
+		Assert.assertFalse(Double.isInfinite(likelihood.getLogLikelihood()));
+	}
+
+	@Test
+	public void testCalculateNodeLogLikelihoodDoesNotAllocate() {
+
+		final int nodeCount = symbiontTree.getInternalNodeCount();
+		final NodeRef[] nodes = new NodeRef[nodeCount];
+		final NodeRef[][] hosts = new NodeRef[nodeCount][];
+		for (int i = 0; i < nodeCount; ++i) {
+			final NodeRef node = symbiontTree.getInternalNode(i);
+			nodes[i] = node;
+			hosts[i] = new NodeRef[]{likelihood.getStatesForNode(node), likelihood.getStatesForNode(symbiontTree.getChild(node, 0)), likelihood.getStatesForNode(symbiontTree.getChild(node, 1))};
+		}
+
+		double sum = evaluateNodes(nodes, hosts, WARMUP_ROUNDS);
+		final long threadId = Thread.currentThread().getId();
+		final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		sum += evaluateNodes(nodes, hosts, MEASURED_ROUNDS);
+		final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+		Assert.assertFalse(Double.isNaN(sum));
+		// Allow for the odd allocation by the JVM itself, but not one per call
+		final long calls = (long) MEASURED_ROUNDS * nodeCount;
+		Assert.assertTrue(allocated + " bytes allocated by " + calls + " calls", allocated < calls);
+	}
+
+	private double evaluateNodes(final NodeRef[] nodes, final NodeRef[][] hosts, final int rounds) {
+		double sum = 0.0;
+		for (int k = 0; k < rounds; ++k) {
+			for (int i = 0; i < nodes.length; ++i) {
+				final NodeRef node = nodes[i];
+				sum += model.calculateNodeLogLikelihood(symbiontTree, node, symbiontTree.getChild(node, 0), symbiontTree.getChild(node, 1), hostTree, hosts[i][0], hosts[i][1], hosts[i][2], branchRates);
+			}
+		}
+		return sum;
+	}
+
+}
@@ -9,6 +9,7 @@ import java.lang.reflect.Method;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.HostTreeIndex;
 import org.ithinktree.becky.SimpleCophylogenyModel;
 import org.junit.Assert;
 import org.junit.Before;
@@ -23,6 +24,7 @@ import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
 import dr.inference.model.Parameter;
 import dr.math.MachineAccuracy;
 
@@ -153,6 +155,119 @@ public class SimpleCophylogenyModelTest {
 	    Assert.assertEquals(actualLikelihood, likelihood, MachineAccuracy.EPSILON);
 	}
 	
+	@Test
+	public void testOriginLogLikelihoodFarFromHostRoot() {
+
+		// Above the host root only the waiting terms depend on the origin, each linearly in log space
+		final MutableTree symbiont = new TreeModel(TestUtils.treeFromNewick("(d:1.2,e:1.2);", true));
+		final Parameter originHeight = new Parameter.Default(2.5);
+		final CophylogenyLikelihood cl = new CophylogenyLikelihood(host, symbiont, model, branchRates, originHeight, "host.nodeRef", "testCophylogenyLikelihood");
+		for (int i = 0; i < symbiont.getExternalNodeCount(); ++i)
+			cl.setStatesForNode(symbiont.getExternalNode(i), symbiont.getTaxonId(i).equals("d") ? TestUtils.D : TestUtils.E);
+		cl.setStatesForNode(symbiont.getRoot(), TestUtils.DE);
+
+		final double logL = cl.getLogLikelihood();
+		originHeight.setParameterValue(0, 3.5);
+		final double slope = cl.getLogLikelihood() - logL;
+		// Far enough that the likelihood itself underflows
+		originHeight.setParameterValue(0, 200.0);
+		Assert.assertFalse(Double.isInfinite(cl.getLogLikelihood()));
+		Assert.assertEquals(logL + 197.5 * slope, cl.getLogLikelihood(), 1E-9);
+	}
+
+	@Test
+	public void testLikelihoodLineageLossByHand() {
+		
+		// Lost along DE, or surviving it and then lost along both D and E
+		final double overallRate = model.getOverallRate();
+		final double lossRate = model.getLossRate();
+		final double lossAlongDE = lossRate * (1 - Math.exp(-overallRate * 0.5)) / overallRate;
+		final double lossAlongD = lossRate * (1 - Math.exp(-overallRate * 1.0)) / overallRate;
+		final double lossesBelowDE = Math.exp(-overallRate * 0.5) * lossAlongD * lossAlongD;
+		
+		Assert.assertEquals(lossAlongDE + lossesBelowDE, invokeLikelihoodLineageLoss(host, TestUtils.DE, 1.0, false), MachineAccuracy.EPSILON);
+		Assert.assertEquals(lossesBelowDE, invokeLikelihoodLineageLoss(host, TestUtils.DE, 1.0, true), MachineAccuracy.EPSILON);
+		Assert.assertEquals(0.0, invokeLikelihoodLineageLoss(host, TestUtils.D, 1.0, true), 0.0);
+	}
+	
+	@Test
+	public void testLikelihoodLineageLossMatchesEnumeration() {
+		
+		for (final double rate : new double[]{0.3, 1.0, 2.5}) {
+			for (int i = 0; i < host.getNodeCount(); ++i) {
+				final NodeRef lineage = host.getNode(i);
+				final double[] enumerated = enumerateExtinctLineageLikelihoods(host, lineage, rate);
+				double sum = 0.0;
+				for (int j = 0; j < enumerated.length - 1; ++j)
+					sum += enumerated[j];
+				Assert.assertEquals(sum, invokeLikelihoodLineageLoss(host, lineage, rate, true), 1E-12);
+				Assert.assertEquals(sum + enumerated[enumerated.length - 1], invokeLikelihoodLineageLoss(host, lineage, rate, false), 1E-12);
+			}
+		}
+		
+		// Again with the extinction cache, which is only used with a host tree index
+		model.setHostTreeIndex(new HostTreeIndex(host));
+		try {
+			model.calculateNodeLogLikelihood(null, null, null, null, null, null, null, null, null);
+		} catch (Exception e) {
+			// Expected; do nothing
+		}
+		for (int k = 0; k < 2; ++k) {
+			for (int i = 0; i < host.getNodeCount(); ++i) {
+				final NodeRef lineage = host.getNode(i);
+				final double[] enumerated = enumerateExtinctLineageLikelihoods(host, lineage, 1.0);
+				double sum = 0.0;
+				for (int j = 0; j < enumerated.length - 1; ++j)
+					sum += enumerated[j];
+				Assert.assertEquals(sum, invokeLikelihoodLineageLoss(host, lineage, 1.0, true), 1E-12);
+				Assert.assertEquals(sum + enumerated[enumerated.length - 1], invokeLikelihoodLineageLoss(host, lineage, 1.0, false), 1E-12);
+			}
+		}
+		model.setHostTreeIndex(null);
+	}
+	
+	/**
+	 * The enumeration that likelihoodLineageLoss used to do: the likelihood of every combination of extinct
+	 * host sub-lineages, with the loss along the lineage itself last.
+	 */
+	private double[] enumerateExtinctLineageLikelihoods(final Tree tree, final NodeRef lineage, final double rate) {
+		
+		final double overallRate = model.getOverallRate() * rate;
+		final double length = tree.getBranchLength(lineage);
+		final double self = model.getLossRate() * rate * (1 - Math.exp(-overallRate * length)) / overallRate;
+		if (tree.isExternal(lineage))
+			return new double[]{self};
+		
+		final double[] child1 = enumerateExtinctLineageLikelihoods(tree, tree.getChild(lineage, 0), rate);
+		final double[] child2 = enumerateExtinctLineageLikelihoods(tree, tree.getChild(lineage, 1), rate);
+		final double[] likelihoods = new double[child1.length * child2.length + 1];
+		int i = 0;
+		for (final double l1 : child1) {
+			for (final double l2 : child2)
+				likelihoods[i++] = l1 * l2 * Math.exp(-overallRate * length);
+		}
+		likelihoods[i] = self;
+		return likelihoods;
+	}
+	
+	private double invokeLikelihoodLineageLoss(final Tree tree, final NodeRef lineage, final double rate, final boolean excludeRoot) {
+		
+		Method m;
+		try {
+			m = SimpleCophylogenyModel.class.getDeclaredMethod("likelihoodLineageLoss", Tree.class, NodeRef.class, double.class, boolean.class);
+		} catch (Exception e) {
+			Assert.fail("Fatal reflection error retrieving method: " + e.toString());
+			return Double.NaN;
+		}
+		m.setAccessible(true);
+		try {
+			return (Double) m.invoke(model, tree, lineage, rate, excludeRoot);
+		} catch (Exception e) {
+			Assert.fail("Fatal reflection error invoking method: " + ExceptionUtils.getStackTrace(e));
+			return Double.NaN;
+		}
+	}
+	
 	@Test
 	public void testCorrectness() {
 	    
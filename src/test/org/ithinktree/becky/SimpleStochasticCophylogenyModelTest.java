@@ -0,0 +1,149 @@
+/**
+ * SimpleStochasticCophylogenyModelTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import org.ithinktree.becky.CophylogenyLikelihood;
+import org.ithinktree.becky.EvaluationCounters;
+import org.ithinktree.becky.SimpleStochasticCophylogenyModel;
+import org.ithinktree.becky.StochasticLikelihoodNoDescendants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.org.ithinktree.becky.TestUtils.SimpleBranchRates;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * Replaces the Monte Carlo estimates with draws of known mean, to check that the likelihood stays an unbiased
+ * estimate and that the estimates of the current state are the ones kept across a rejected proposal, and checks
+ * that the iterations of real estimates are counted.
+ *
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class SimpleStochasticCophylogenyModelTest {
+
+	private static final int EVALUATIONS = 20000;
+
+	/**
+	 * Estimates each likelihood as its mean times a uniform factor between 0.5 and 1.5, or as the mean itself.
+	 */
+	@SuppressWarnings("serial")
+	private static class KnownMeanModel extends SimpleStochasticCophylogenyModel {
+
+		private int drawCount = 0;
+
+		public KnownMeanModel(final boolean noisy) {
+			super(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), 1, Units.Type.YEARS);
+			mc = new StochasticLikelihoodNoDescendants(this, 1) {
+				@Override
+				public double likelihoodNoDescendants(final Tree hostTree, final NodeRef originHost, final double originHeight, final double rate) {
+					++drawCount;
+					final double mean = Math.exp(-0.5 * (originHeight - hostTree.getNodeHeight(originHost))) * (0.3 + 0.05 * originHost.getNumber());
+					return noisy ? mean * (0.5 + MathUtils.nextDouble()) : mean;
+				}
+			};
+		}
+
+	}
+
+	private TreeModel symbiontTree;
+	private NodeRef duplicate;
+
+	/**
+	 * Two copies of a symbiont on DE that duplicated on CDE, so both are lost along C: a term with the same
+	 * host lineage and rate twice over. The root host also leaves losses along B and A up to the origin.
+	 */
+	private CophylogenyLikelihood createLikelihood(final SimpleStochasticCophylogenyModel model) {
+		final Tree hostTree = TestUtils.DEFAULT_TREE;
+		symbiontTree = new TreeModel(TestUtils.treeFromNewick("((d1:1.2,e1:1.2):0.4,(d2:1.3,e2:1.3):0.3);", true));
+		final CophylogenyLikelihood likelihood = new CophylogenyLikelihood(hostTree, symbiontTree, model, new SimpleBranchRates(1.0), new Parameter.Default(2.5), "host.nodeRef", "testCophylogenyLikelihood");
+		for (int i = 0; i < symbiontTree.getExternalNodeCount(); ++i) {
+			final NodeRef tip = symbiontTree.getExternalNode(i);
+			likelihood.setStatesForNode(tip, symbiontTree.getTaxonId(i).startsWith("d") ? TestUtils.D : TestUtils.E);
+		}
+		final NodeRef root = symbiontTree.getRoot();
+		likelihood.setStatesForNode(symbiontTree.getChild(root, 0), TestUtils.DE);
+		likelihood.setStatesForNode(symbiontTree.getChild(root, 1), TestUtils.DE);
+		likelihood.setStatesForNode(root, TestUtils.CDE);
+		duplicate = symbiontTree.getChild(root, 0);
+		return likelihood;
+	}
+
+	@Test
+	public void testUnbiased() {
+
+		final double expected = Math.exp(createLikelihood(new KnownMeanModel(false)).getLogLikelihood());
+		Assert.assertTrue(expected > 0.0);
+
+		MathUtils.setSeed(666);
+		final KnownMeanModel model = new KnownMeanModel(true);
+		final CophylogenyLikelihood likelihood = createLikelihood(model);
+		double sum = 0.0;
+		for (int k = 0; k < EVALUATIONS; ++k) {
+			likelihood.makeDirty();
+			sum += Math.exp(likelihood.getLogLikelihood());
+		}
+		// A draw shared by two factors would inflate the mean by its second moment, a twelfth
+		Assert.assertEquals(1.0, sum / EVALUATIONS / expected, 0.03);
+	}
+
+	@Test
+	public void testIterationsCounted() {
+		// Adaptive, so the estimates stop after different numbers of batches
+		MathUtils.setSeed(666);
+		final SimpleStochasticCophylogenyModel model = new SimpleStochasticCophylogenyModel(new Parameter.Default(1.0), new Parameter.Default(1.0), new Parameter.Default(0.5), 10000, 1, 0.05, 100, Units.Type.YEARS);
+		final CophylogenyLikelihood likelihood = createLikelihood(model);
+		final EvaluationCounters counters = new EvaluationCounters();
+		likelihood.setEvaluationCounters(counters);
+		Assert.assertFalse(Double.isInfinite(likelihood.getLogLikelihood()));
+		final long estimates = counters.getCount(EvaluationCounters.Counter.MONTE_CARLO_ESTIMATES);
+		final long iterations = counters.getCount(EvaluationCounters.Counter.MONTE_CARLO_ITERATIONS);
+		Assert.assertEquals(counters.getCount(EvaluationCounters.Counter.LINEAGE_LOSS_CALLS), estimates);
+		Assert.assertTrue(estimates > 0);
+		Assert.assertTrue(iterations > 100 * estimates && iterations < 10000 * estimates);
+		Assert.assertEquals(0, iterations % 100);
+	}
+
+	@Test
+	public void testCurrentEstimatesKept() {
+
+		MathUtils.setSeed(666);
+		final KnownMeanModel model = new KnownMeanModel(true);
+		final CophylogenyLikelihood likelihood = createLikelihood(model);
+		final double logLikelihood = likelihood.getLogLikelihood();
+
+		// The losses of a rejected proposal are estimated anew, and the current estimates come back without any draws
+		likelihood.storeModelState();
+		symbiontTree.setNodeHeight(duplicate, 1.25);
+		int drawCount = model.drawCount;
+		Assert.assertFalse(Double.isInfinite(likelihood.getLogLikelihood()));
+		Assert.assertTrue(model.drawCount > drawCount);
+		symbiontTree.setNodeHeight(duplicate, 1.2);
+		likelihood.restoreModelState();
+		drawCount = model.drawCount;
+		Assert.assertEquals(logLikelihood, likelihood.getLogLikelihood(), 0.0);
+		Assert.assertEquals(drawCount, model.drawCount);
+
+		// Going back to the same state later on is a new proposal, so gets new draws rather than the old ones
+		likelihood.storeModelState();
+		symbiontTree.setNodeHeight(duplicate, 1.25);
+		likelihood.getLogLikelihood();
+		likelihood.acceptModelState();
+		likelihood.storeModelState();
+		symbiontTree.setNodeHeight(duplicate, 1.2);
+		Assert.assertTrue(logLikelihood != likelihood.getLogLikelihood());
+		Assert.assertTrue(model.drawCount > drawCount);
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * StochasticLikelihoodNoDescendantsTest.java
+ *
+ * BECKY
+ */
+package test.org.ithinktree.becky;
+
+import org.ithinktree.becky.SimpleCophylogenyModel;
+import org.ithinktree.becky.StochasticLikelihoodNoDescendants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * @author Arman D. Bilge
+ *
+ */
+@RunWith(JUnit4.class)
+public class StochasticLikelihoodNoDescendantsTest {
+
+	private Tree tree = TestUtils.DEFAULT_TREE;
+
+	private StochasticLikelihoodNoDescendants createEstimator(final double lossRate, final int iterations, final int batchSize) {
+		MathUtils.setSeed(666);
+		final SimpleCophylogenyModel model = new SimpleCophylogenyModel(new Parameter.Default(0.0), new Parameter.Default(0.0), new Parameter.Default(lossRate), Units.Type.YEARS);
+		return new StochasticLikelihoodNoDescendants(model, iterations, 1, 0.05, batchSize);
+	}
+
+	@Test
+	public void testAllExtinctKeepsSimulating() {
+		// Survival is so unlikely that every replicate dies out, which says nothing about the error
+		final StochasticLikelihoodNoDescendants estimator = createEstimator(50.0, 1000, 100);
+		final double likelihood = estimator.likelihoodNoDescendants(tree, tree.getRoot(), tree.getNodeHeight(tree.getRoot()) + 1.0, 1.0);
+		Assert.assertEquals(1.0, likelihood, 0.0);
+		Assert.assertEquals(1000, estimator.getLastIterationCount());
+	}
+
+	@Test
+	public void testStopsWhenPreciseEnough() {
+		// Loss only, along the branch above the root and within both subtrees of the default tree
+		final StochasticLikelihoodNoDescendants estimator = createEstimator(0.7, 100000, 100);
+		final double likelihood = estimator.likelihoodNoDescendants(tree, tree.getRoot(), tree.getNodeHeight(tree.getRoot()) + 0.5, 1.0);
+		Assert.assertTrue(estimator.getLastIterationCount() < 100000);
+		Assert.assertEquals(0, estimator.getLastIterationCount() % 100);
+		Assert.assertTrue(likelihood > 0.0 && likelihood < 1.0);
+	}
+
+}